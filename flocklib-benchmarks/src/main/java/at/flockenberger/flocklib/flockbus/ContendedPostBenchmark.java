@@ -0,0 +1,67 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import at.flockenberger.flocklib.flockbus.PostEventBenchmark.BenchEvent;
+import at.flockenberger.flocklib.flockbus.PostEventBenchmark.Listener;
+
+/**
+ * Measures {@link FlockBus#postEvent(EventBase)} while several threads post
+ * to the same bus.<br>
+ * The thread count can be changed with <code>-t</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ContendedPostBenchmark
+{
+	@Param({ "1", "10", "1000" })
+	public int subscribers;
+
+	private FlockBus bus;
+
+	@State(Scope.Thread)
+	public static class PosterState
+	{
+		BenchEvent event = new BenchEvent();
+	}
+
+	@Setup
+	public void setup()
+	{
+		bus = new FlockBus("contended");
+		for (int i = 0; i < subscribers; i++)
+			bus.register(new Listener());
+	}
+
+	@Benchmark
+	public void post(PosterState state)
+	{
+		bus.postEvent(state.event);
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(ContendedPostBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,120 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures {@link FlockBus#postEvent(EventBase)} on a single thread.<br>
+ * The subscribers are empty, so the results show the cost of the bus itself.
+ * The posted events are reused, with <code>-prof gc</code> the allocation rate
+ * is the garbage the bus produces per post.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PostEventBenchmark
+{
+	public static class BenchEvent extends EventBase
+	{}
+
+	public interface Tagged
+	{}
+
+	public static class BaseEvent extends EventBase
+	{}
+
+	public static class MiddleEvent extends BaseEvent
+	{}
+
+	public static class LeafEvent extends MiddleEvent implements Tagged
+	{}
+
+	public static class Listener
+	{
+		@Subscribe
+		public void onEvent(BenchEvent event)
+		{}
+	}
+
+	/**
+	 * Subscribes to every level of the {@link LeafEvent} hierarchy.
+	 */
+	public static class HierarchyListener
+	{
+		@Subscribe
+		public void onBase(BaseEvent event)
+		{}
+
+		@Subscribe
+		public void onMiddle(MiddleEvent event)
+		{}
+
+		@Subscribe
+		public void onTagged(Tagged event)
+		{}
+	}
+
+	@Param({ "1", "10", "1000" })
+	public int subscribers;
+
+	private FlockBus bus;
+	private FlockBus hierarchyBus;
+	private BenchEvent event;
+	private LeafEvent leafEvent;
+	private BaseEvent deadEvent;
+
+	@Setup
+	public void setup()
+	{
+		bus = new FlockBus("post");
+		hierarchyBus = new FlockBus("hierarchy");
+		for (int i = 0; i < subscribers; i++)
+		{
+			bus.register(new Listener());
+			hierarchyBus.register(new HierarchyListener());
+		}
+		event = new BenchEvent();
+		leafEvent = new LeafEvent();
+		deadEvent = new BaseEvent();
+	}
+
+	@Benchmark
+	public void post()
+	{
+		bus.postEvent(event);
+	}
+
+	@Benchmark
+	public void postHierarchy()
+	{
+		hierarchyBus.postEvent(leafEvent);
+	}
+
+	@Benchmark
+	public void postWithoutSubscriber()
+	{
+		bus.postEvent(deadEvent);
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(PostEventBenchmark.class.getSimpleName()).build()).run();
+	}
+}
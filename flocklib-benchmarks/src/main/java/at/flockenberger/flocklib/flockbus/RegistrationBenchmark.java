@@ -0,0 +1,97 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import at.flockenberger.flocklib.flockbus.PostEventBenchmark.Listener;
+
+/**
+ * Measures {@link FlockBus#register(Object)} and
+ * {@link FlockBus#unregister(Object)} on a bus that already has a number of
+ * subscribers.<br>
+ * Every operation changes the bus, so each iteration starts with a fresh bus
+ * and measures a batch of {@value #BATCH} operations.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20, batchSize = RegistrationBenchmark.BATCH)
+@Measurement(iterations = 20, batchSize = RegistrationBenchmark.BATCH)
+@Fork(1)
+public class RegistrationBenchmark
+{
+	static final int BATCH = 1000;
+
+	@State(Scope.Thread)
+	public static class BusState
+	{
+		@Param({ "1", "10", "1000" })
+		public int subscribers;
+
+		FlockBus bus;
+		Listener[] pending;
+		int next;
+
+		void fill()
+		{
+			bus = new FlockBus("registration");
+			for (int i = 0; i < subscribers; i++)
+				bus.register(new Listener());
+			pending = new Listener[BATCH];
+			for (int i = 0; i < BATCH; i++)
+				pending[i] = new Listener();
+			next = 0;
+		}
+	}
+
+	public static class RegisterState extends BusState
+	{
+		@Setup(Level.Iteration)
+		public void setup()
+		{
+			fill();
+		}
+	}
+
+	public static class UnregisterState extends BusState
+	{
+		@Setup(Level.Iteration)
+		public void setup()
+		{
+			fill();
+			for (Listener listener : pending)
+				bus.register(listener);
+		}
+	}
+
+	@Benchmark
+	public void register(RegisterState state)
+	{
+		state.bus.register(state.pending[state.next++]);
+	}
+
+	@Benchmark
+	public void unregister(UnregisterState state)
+	{
+		state.bus.unregister(state.pending[state.next++]);
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(RegistrationBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,89 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the reflective {@link Method#invoke(Object, Object...)} dispatch
+ * with the compiled invokers of {@link SubscriberInvoker}.<br>
+ * All three invoke the same instance method, so the results only differ in
+ * the cost of the invocation strategy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubscriberInvokeBenchmark
+{
+	public static class Handler
+	{
+		private Blackhole hole;
+
+		@Subscribe
+		public void onEvent(BenchEvent event)
+		{
+			hole.consume(event);
+		}
+	}
+
+	public static class BenchEvent extends EventBase
+	{}
+
+	private Handler handler;
+	private BenchEvent event;
+	private Method method;
+	private BiConsumer<Object, Object> lambdaInvoker;
+	private BiConsumer<Object, Object> handleInvoker;
+
+	@Setup
+	public void setup(Blackhole hole) throws Exception
+	{
+		handler = new Handler();
+		handler.hole = hole;
+		event = new BenchEvent();
+		method = Handler.class.getMethod("onEvent", BenchEvent.class);
+		lambdaInvoker = SubscriberInvoker.create(method);
+		handleInvoker = SubscriberInvoker.createMethodHandle(method);
+	}
+
+	@Benchmark
+	public void reflective() throws Exception
+	{
+		method.invoke(handler, event);
+	}
+
+	@Benchmark
+	public void lambdaMetafactory()
+	{
+		lambdaInvoker.accept(handler, event);
+	}
+
+	@Benchmark
+	public void methodHandle()
+	{
+		handleInvoker.accept(handler, event);
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(SubscriberInvokeBenchmark.class.getSimpleName()).build()).run();
+	}
+}
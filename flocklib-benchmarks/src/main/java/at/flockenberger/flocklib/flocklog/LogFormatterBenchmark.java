@@ -0,0 +1,120 @@
+package at.flockenberger.flocklib.flocklog;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the {@link LogJsonFormatter} with the {@link LogDefaultFormatter}.<br>
+ * Both format into a reused {@link StringBuilder} like the handlers do, with
+ * <code>-prof gc</code> the allocation rate is the garbage a formatter produces
+ * per entry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogFormatterBenchmark
+{
+	/**
+	 * Keeps the last logged entry.
+	 */
+	static class CaptureHandler extends LogHandler
+	{
+		LogEntry entry;
+
+		@Override
+		public void log(LogEntry entry)
+		{
+			this.entry = entry;
+		}
+
+		@Override
+		public void close()
+		{}
+
+		@Override
+		public void flush()
+		{}
+	}
+
+	private LogDefaultFormatter text;
+	private LogJsonFormatter json;
+	private StringBuilder out;
+	private LogEntry parameterized;
+	private LogEntry structured;
+
+	@Setup
+	public void setup()
+	{
+		text = new LogDefaultFormatter();
+		json = new LogJsonFormatter();
+		out = new StringBuilder(512);
+
+		FlockLogger logger = FlockLogManager.getLogger("benchmark");
+		logger.removeDefaultConsoleHandler();
+		CaptureHandler capture = new CaptureHandler();
+		logger.addHandler(capture);
+
+		logger.info("request {} from {} took {} ms", 4711, "client-7", 12L);
+		parameterized = capture.entry;
+
+		LogContext.put("requestId", "c0ffee");
+		LogContext.put("user", "alice");
+		logger.infoWith("request done", LogField.of("request", 4711), LogField.of("client", "client-7"),
+				LogField.of("took", 12L), LogField.of("cached", true));
+		structured = capture.entry;
+		LogContext.clear();
+	}
+
+	@Benchmark
+	public StringBuilder textParameterized()
+	{
+		out.setLength(0);
+		text.formatLogEntry(parameterized, out);
+		return out;
+	}
+
+	@Benchmark
+	public StringBuilder jsonParameterized()
+	{
+		out.setLength(0);
+		json.formatLogEntry(parameterized, out);
+		return out;
+	}
+
+	@Benchmark
+	public StringBuilder textStructured()
+	{
+		out.setLength(0);
+		text.formatLogEntry(structured, out);
+		return out;
+	}
+
+	@Benchmark
+	public StringBuilder jsonStructured()
+	{
+		out.setLength(0);
+		json.formatLogEntry(structured, out);
+		return out;
+	}
+
+	public static void main(String[] args) throws RunnerException
+	{
+		new Runner(new OptionsBuilder().include(LogFormatterBenchmark.class.getSimpleName()).build()).run();
+	}
+}
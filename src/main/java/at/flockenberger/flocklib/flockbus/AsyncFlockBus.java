@@ -0,0 +1,287 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
+
+/**
+ * <h1>AsyncFlockBus</h1><br>
+ * An asynchronous {@link FlockBus}.<br>
+ * {@link #postEvent(EventBase)} returns immediately, the subscribers are
+ * invoked on the {@link Executor} of this bus. Any executor can be used, for
+ * example {@link Executors#newFixedThreadPool(int)}, a {@link ForkJoinPool} or
+ * {@link #virtualThreadExecutor()}.<br>
+ * Every subscriber receives its events in the order they were posted, there is
+ * no ordering guarantee across different subscribers.<br>
+ * Call {@link #shutdown()} to drain all pending events before the bus is
+ * discarded.
+ *
+ * @author Florian Wagner
+ *
+ */
+public class AsyncFlockBus extends FlockBus
+{
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -2281405923981150624L;
+
+	/**
+	 * the executor that runs the subscribers
+	 */
+	private final transient Executor executor;
+
+	/**
+	 * flag that indicates that {@link #executor} was created by this bus and
+	 * should be shut down with it
+	 */
+	private final boolean ownsExecutor;
+
+	/**
+	 * the number of events that have been posted to a subscriber but were not
+	 * delivered yet
+	 */
+	private final transient AtomicLong queueDepth;
+
+	/**
+	 * the number of events that have been delivered to subscribers
+	 */
+	private final transient LongAdder delivered;
+
+	/**
+	 * lock that is notified when the queue depth drops to zero
+	 */
+	private final transient Object drainLock;
+
+	/**
+	 * flag that indicates that this bus does not accept new events
+	 */
+	private volatile boolean shutdown;
+
+	/**
+	 * Constructor<br>
+	 * Creates a new asynchronous bus that runs its subscribers on
+	 * {@link #virtualThreadExecutor()}.<br>
+	 * The executor is owned by this bus and shut down by {@link #shutdown()}.
+	 *
+	 * @param name the name / identifier for this bus
+	 */
+	public AsyncFlockBus(String name)
+	{
+		this(name, virtualThreadExecutor(), true);
+	}
+
+	/**
+	 * Constructor<br>
+	 * Creates a new asynchronous bus that runs its subscribers on the given
+	 * {@link Executor} <code>executor</code>.<br>
+	 * The executor is not shut down by {@link #shutdown()}.
+	 *
+	 * @param name     the name / identifier for this bus
+	 * @param executor the executor to run the subscribers on
+	 */
+	public AsyncFlockBus(String name, Executor executor)
+	{
+		this(name, executor, false);
+	}
+
+	private AsyncFlockBus(String name, Executor executor, boolean ownsExecutor)
+	{
+		super(name);
+		this.executor = ObjectUtils.notNull(executor, "Executor must not be null!");
+		this.ownsExecutor = ownsExecutor;
+		this.queueDepth = new AtomicLong();
+		this.delivered = new LongAdder();
+		this.drainLock = new Object();
+	}
+
+	/**
+	 * Creates an executor that starts a new virtual thread for each task.<br>
+	 * Virtual threads are only available on Java 21 and later, on older runtimes
+	 * a cached pool of daemon threads is returned instead.
+	 *
+	 * @return a thread per task {@link ExecutorService}
+	 */
+	public static ExecutorService virtualThreadExecutor()
+	{
+		try
+		{
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e)
+		{
+			return Executors.newCachedThreadPool(new DaemonThreadFactory());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalStateException if this bus has been shut down
+	 */
+	@Override
+	void ensureOpen()
+	{
+		if (shutdown)
+			throw new IllegalStateException("AsyncFlockBus " + name() + " has been shut down!");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	void dispatch(Subscriber subscriber, Object event)
+	{
+		SubscriberLane lane = subscriber.lane;
+		if (lane == null)
+		{
+			synchronized (subscriber)
+			{
+				lane = subscriber.lane;
+				if (lane == null)
+					subscriber.lane = lane = new SubscriberLane(this, subscriber);
+			}
+		}
+		queueDepth.incrementAndGet();
+		lane.enqueue(event);
+	}
+
+	/**
+	 * Submits a lane to the executor.<br>
+	 * If the executor rejects the lane it is run on the calling thread so that no
+	 * event is lost.
+	 *
+	 * @param lane the lane to run
+	 */
+	void execute(SubscriberLane lane)
+	{
+		try
+		{
+			executor.execute(lane);
+		} catch (RejectedExecutionException e)
+		{
+			lane.run();
+		}
+	}
+
+	/**
+	 * Called by a lane after an event has been delivered.
+	 */
+	void completed()
+	{
+		delivered.increment();
+		if (queueDepth.decrementAndGet() == 0)
+		{
+			synchronized (drainLock)
+			{
+				drainLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of events that are queued but have not been delivered
+	 *         to their subscriber yet
+	 */
+	public long getQueueDepth()
+	{ return queueDepth.get(); }
+
+	/**
+	 * @return the total number of events that have been delivered to subscribers
+	 */
+	public long getDeliveredCount()
+	{ return delivered.sum(); }
+
+	/**
+	 * @return true if {@link #shutdown()} has been called
+	 */
+	public boolean isShutdown()
+	{ return shutdown; }
+
+	/**
+	 * Stops accepting new events and waits until all pending events have been
+	 * delivered. If the executor is owned by this bus it is shut down afterwards.
+	 *
+	 * @throws InterruptedException if the current thread was interrupted while
+	 *                              waiting
+	 */
+	public void shutdown() throws InterruptedException
+	{
+		shutdown(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stops accepting new events and waits at most the given time until all
+	 * pending events have been delivered. If the executor is owned by this bus it
+	 * is shut down afterwards.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit    the unit of <code>timeout</code>
+	 * @return true if all pending events have been delivered, false if the
+	 *         timeout elapsed first
+	 * @throws InterruptedException if the current thread was interrupted while
+	 *                              waiting
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		closeCoalescer();
+		this.shutdown = true;
+		boolean drained = awaitDrained(timeout, unit);
+		if (ownsExecutor && executor instanceof ExecutorService)
+			((ExecutorService) executor).shutdown();
+		return drained;
+	}
+
+	/**
+	 * Waits at most the given time until the queue depth dropped to zero.
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit    the unit of <code>timeout</code>
+	 * @return true if there are no pending events
+	 * @throws InterruptedException if the current thread was interrupted while
+	 *                              waiting
+	 */
+	public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		long remaining = unit.toNanos(timeout);
+		long deadline = System.nanoTime() + remaining;
+		synchronized (drainLock)
+		{
+			while (queueDepth.get() > 0)
+			{
+				if (remaining <= 0)
+					return false;
+				TimeUnit.NANOSECONDS.timedWait(drainLock, remaining);
+				remaining = deadline - System.nanoTime();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates named daemon threads for the fallback executor.
+	 */
+	private static final class DaemonThreadFactory implements ThreadFactory
+	{
+		private static final AtomicInteger COUNT = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread thread = new Thread(r, "AsyncFlockBus-" + COUNT.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>BusMetrics</h1><br>
+ * Records what a {@link FlockBus} is doing: the number of posts of every event
+ * class, a {@link LatencyHistogram} and the number of thrown exceptions of every
+ * subscriber method. Optionally a {@link SlowSubscriberListener} is called
+ * whenever a subscriber exceeds a latency budget.<br>
+ * Metrics are enabled with {@link FlockBus#enableMetrics()}. Recording does
+ * not allocate once every event class and subscriber method has been seen,
+ * use {@link #snapshot()} to read the metrics.
+ *
+ * @author Florian Wagner
+ *
+ */
+public final class BusMetrics
+{
+	/**
+	 * the bus whose metrics are recorded
+	 */
+	private final FlockBus bus;
+
+	/**
+	 * the post counters of every event class
+	 */
+	private final Map<Class<?>, LongAdder> posts;
+
+	/**
+	 * the statistics of every subscriber method
+	 */
+	private final Map<SubscriberMethod, MethodStats> methods;
+
+	/**
+	 * the latency budget in nanoseconds, {@link Long#MAX_VALUE} if there is none
+	 */
+	private volatile long budgetNanos = Long.MAX_VALUE;
+
+	/**
+	 * the listener that is called when the budget is exceeded
+	 */
+	private volatile SlowSubscriberListener slowListener;
+
+	/**
+	 * the time the metrics were started or reset
+	 */
+	private volatile long startNanos;
+
+	BusMetrics(FlockBus bus)
+	{
+		this.bus = bus;
+		this.posts = new ConcurrentHashMap<Class<?>, LongAdder>();
+		this.methods = new ConcurrentHashMap<SubscriberMethod, MethodStats>();
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Sets a latency budget for every subscriber.<br>
+	 * Whenever a subscriber takes longer than <code>budget</code> to handle an
+	 * event the given listener is called. Exceptions thrown by the listener are
+	 * printed like unhandled subscriber exceptions and do not affect the
+	 * delivery of the event.
+	 *
+	 * @param budget   the latency budget
+	 * @param unit     the unit of <code>budget</code>
+	 * @param listener the listener to call or null to only count slow invocations
+	 */
+	public void setLatencyBudget(long budget, TimeUnit unit, SlowSubscriberListener listener)
+	{
+		this.slowListener = listener;
+		this.budgetNanos = unit.toNanos(budget);
+	}
+
+	/**
+	 * Removes the latency budget.
+	 */
+	public void clearLatencyBudget()
+	{
+		this.budgetNanos = Long.MAX_VALUE;
+		this.slowListener = null;
+	}
+
+	void recordPost(Class<?> eventClass)
+	{
+		LongAdder counter = posts.get(eventClass);
+		if (counter == null)
+			counter = posts.computeIfAbsent(eventClass, key -> new LongAdder());
+		counter.increment();
+	}
+
+	void recordInvocation(Subscriber subscriber, Object event, long nanos, boolean failed)
+	{
+		MethodStats stats = statsOf(subscriber.getSubscriberMethod());
+		stats.latency.record(nanos);
+		if (failed)
+			stats.exceptions.increment();
+		if (nanos > budgetNanos)
+		{
+			stats.slow.increment();
+			SlowSubscriberListener listener = this.slowListener;
+			if (listener != null)
+			{
+				try
+				{
+					listener.onSlowSubscriber(subscriber, event, nanos);
+				} catch (Exception e)
+				{
+					bus.reportException(e);
+				}
+			}
+		}
+	}
+
+	private MethodStats statsOf(SubscriberMethod method)
+	{
+		MethodStats stats = methods.get(method);
+		if (stats == null)
+			stats = methods.computeIfAbsent(method, key -> new MethodStats());
+		return stats;
+	}
+
+	/**
+	 * Discards all recorded values and restarts the measurement.
+	 */
+	public void reset()
+	{
+		posts.clear();
+		methods.clear();
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * @return a copy of all metrics that have been recorded since the metrics
+	 *         were enabled or reset
+	 */
+	public BusMetricsSnapshot snapshot()
+	{
+		long elapsed = System.nanoTime() - startNanos;
+		Map<Class<?>, Long> postCounts = new HashMap<Class<?>, Long>();
+		for (Map.Entry<Class<?>, LongAdder> entry : posts.entrySet())
+			postCounts.put(entry.getKey(), entry.getValue().sum());
+
+		Map<Method, LatencyHistogram> latencies = new HashMap<Method, LatencyHistogram>();
+		Map<Method, Long> exceptions = new HashMap<Method, Long>();
+		Map<Method, Long> slow = new HashMap<Method, Long>();
+		for (Map.Entry<SubscriberMethod, MethodStats> entry : methods.entrySet())
+		{
+			Method method = entry.getKey().method;
+			latencies.put(method, entry.getValue().latency.copy());
+			exceptions.put(method, entry.getValue().exceptions.sum());
+			slow.put(method, entry.getValue().slow.sum());
+		}
+		return new BusMetricsSnapshot(elapsed, postCounts, latencies, exceptions, slow);
+	}
+
+	/**
+	 * The recorded values of one subscriber method.
+	 */
+	private static final class MethodStats
+	{
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder exceptions = new LongAdder();
+		final LongAdder slow = new LongAdder();
+	}
+}
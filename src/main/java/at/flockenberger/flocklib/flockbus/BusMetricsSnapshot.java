@@ -0,0 +1,104 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * <h1>BusMetricsSnapshot</h1><br>
+ * An immutable copy of the {@link BusMetrics} of a {@link FlockBus} at a
+ * certain point in time.
+ * 
+ * @author Florian Wagner
+ *
+ */
+public final class BusMetricsSnapshot
+{
+	/**
+	 * the time that has been measured in nanoseconds
+	 */
+	private final long elapsedNanos;
+
+	/**
+	 * the number of posts of every event class
+	 */
+	private final Map<Class<?>, Long> postCounts;
+
+	/**
+	 * the latencies of every subscriber method
+	 */
+	private final Map<Method, LatencyHistogram> latencies;
+
+	/**
+	 * the number of exceptions thrown by every subscriber method
+	 */
+	private final Map<Method, Long> exceptionCounts;
+
+	/**
+	 * the number of times a subscriber method exceeded the latency budget
+	 */
+	private final Map<Method, Long> slowCounts;
+
+	BusMetricsSnapshot(long elapsedNanos, Map<Class<?>, Long> postCounts, Map<Method, LatencyHistogram> latencies,
+			Map<Method, Long> exceptionCounts, Map<Method, Long> slowCounts)
+	{
+		this.elapsedNanos = elapsedNanos;
+		this.postCounts = Collections.unmodifiableMap(postCounts);
+		this.latencies = Collections.unmodifiableMap(latencies);
+		this.exceptionCounts = Collections.unmodifiableMap(exceptionCounts);
+		this.slowCounts = Collections.unmodifiableMap(slowCounts);
+	}
+
+	/**
+	 * @return the time between enabling or resetting the metrics and this
+	 *         snapshot in nanoseconds
+	 */
+	public long getElapsedNanos()
+	{ return elapsedNanos; }
+
+	/**
+	 * @return the number of posted events of every event class
+	 */
+	public Map<Class<?>, Long> getPostCounts()
+	{ return postCounts; }
+
+	/**
+	 * Retrieves the average number of posts per second of the given event class.
+	 * 
+	 * @param eventClass the class of the posted events
+	 * @return the posts per second over {@link #getElapsedNanos()}
+	 */
+	public double getPostsPerSecond(Class<?> eventClass)
+	{
+		Long posts = postCounts.get(eventClass);
+		if (posts == null || elapsedNanos <= 0)
+			return 0;
+		return posts * 1_000_000_000.0 / elapsedNanos;
+	}
+
+	/**
+	 * @return the dispatch latencies of every subscriber method
+	 */
+	public Map<Method, LatencyHistogram> getLatencies()
+	{ return latencies; }
+
+	/**
+	 * @return the number of exceptions thrown by every subscriber method
+	 */
+	public Map<Method, Long> getExceptionCounts()
+	{ return exceptionCounts; }
+
+	/**
+	 * @return the number of times every subscriber method exceeded the latency
+	 *         budget
+	 */
+	public Map<Method, Long> getSlowCounts()
+	{ return slowCounts; }
+
+	@Override
+	public String toString()
+	{
+		return "BusMetricsSnapshot [elapsedNanos=" + elapsedNanos + ", postCounts=" + postCounts + ", latencies="
+				+ latencies + ", exceptionCounts=" + exceptionCounts + ", slowCounts=" + slowCounts + "]";
+	}
+}
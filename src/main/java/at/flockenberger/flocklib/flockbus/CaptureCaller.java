@@ -0,0 +1,25 @@
+package at.flockenberger.flocklib.flockbus;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * <h1>CaptureCaller</h1><br>
+ * The {@link CaptureCaller} annotation marks an event type whose calling class
+ * and method should be captured whenever it is posted to a {@link FlockBus},
+ * even if caller capture is disabled on that bus.<br>
+ * The annotation is inherited by all sub types of the annotated event.
+ * 
+ * @see FlockBus#setCaptureCaller(boolean)
+ * @author Florian Wagner
+ *
+ */
+@Inherited
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface CaptureCaller
+{}
@@ -0,0 +1,56 @@
+package at.flockenberger.flocklib.flockbus;
+
+/**
+ * <h1>DeadEvent</h1><br>
+ * Posted by a {@link FlockBus} for every event that had no subscriber at
+ * all.<br>
+ * Subscribe to this event to find events that are posted but never handled. A
+ * dead event that has no subscriber itself is only counted, see
+ * {@link FlockBus#getDeadEventCount()}.
+ * 
+ * @author Florian Wagner
+ *
+ */
+public class DeadEvent extends EventBase
+{
+	/**
+	 * the bus the event was posted to
+	 */
+	private final FlockBus bus;
+
+	/**
+	 * the event that had no subscriber
+	 */
+	private final EventBase event;
+
+	/**
+	 * Constructor.<br>
+	 * Creates a new {@link DeadEvent} for the given event.
+	 * 
+	 * @param bus   the bus the event was posted to
+	 * @param event the event that had no subscriber
+	 */
+	public DeadEvent(FlockBus bus, EventBase event)
+	{
+		this.bus = bus;
+		this.event = event;
+	}
+
+	/**
+	 * @return the bus the event was posted to
+	 */
+	public FlockBus getBus()
+	{ return this.bus; }
+
+	/**
+	 * @return the event that had no subscriber
+	 */
+	public EventBase getEvent()
+	{ return this.event; }
+
+	@Override
+	public String toString()
+	{
+		return "DeadEvent [bus=" + bus.name() + ", event=" + event + "]";
+	}
+}
@@ -1,5 +1,7 @@
 package at.flockenberger.flocklib.flockbus;
 
+import java.lang.StackWalker.StackFrame;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 
 /**
@@ -7,6 +9,10 @@ import java.lang.reflect.Method;
  * Base class for all events<br>
  * This class holds the time stamp of when this event was created the calling
  * class as well as the calling method.<br>
+ * The calling class and method are only captured if the bus or the event type
+ * asks for it, see {@link FlockBus#setCaptureCaller(boolean)} and
+ * {@link CaptureCaller}. They are resolved lazily, use
+ * {@link #getCallingClass()} and {@link #getCallingMethod()} to read them.<br>
  * 
  * @author Florian Wagner
  *
@@ -22,15 +28,25 @@ public abstract class EventBase
 	 * the calling class.<br>
 	 * This class is the class where the {@link FlockBus#postEvent(EventBase)} was
 	 * called from.<br>
+	 * It is resolved lazily from {@link #callerFrame}, so it is only read through
+	 * {@link #getCallingClass()}.
 	 */
-	protected Class<?> callingClass;
+	private Class<?> callingClass;
 
 	/**
 	 * the calling method of the calling class.<br>
 	 * This method is the method where the {@link FlockBus#postEvent(EventBase)} was
 	 * called from.<br>
+	 * It is resolved lazily from {@link #callerFrame}, so it is only read through
+	 * {@link #getCallingMethod()}.
 	 */
-	protected Method callingMethod;
+	private Method callingMethod;
+
+	/**
+	 * the captured stack frame of the caller that has not been resolved into
+	 * {@link #callingClass} and {@link #callingMethod} yet
+	 */
+	transient volatile StackFrame callerFrame;
 
 	/**
 	 * flag that indicates that this event has been consumed and should not be
@@ -47,11 +63,88 @@ public abstract class EventBase
 		this.timeStamp = System.currentTimeMillis();
 	}
 
+	/**
+	 * @return the class where this event was posted from or null if the caller
+	 *         was not captured
+	 */
+	public Class<?> getCallingClass()
+	{
+		resolveCaller();
+		return this.callingClass;
+	}
+
+	/**
+	 * @return the method where this event was posted from or null if the caller
+	 *         was not captured or was not a method, e.g. a constructor
+	 */
+	public Method getCallingMethod()
+	{
+		resolveCaller();
+		return this.callingMethod;
+	}
+
+	/**
+	 * Marks this event as consumed.<br>
+	 * A consumed event is not delivered to any further subscriber, see
+	 * {@link Subscribe#priority()}. On an {@link AsyncFlockBus} all subscribers
+	 * are queued before the first one runs, so consuming has no effect there.
+	 */
+	public void consume()
+	{
+		this.consumed = true;
+	}
+
+	/**
+	 * @return true if this event has been consumed by a subscriber
+	 */
+	public boolean isConsumed()
+	{ return this.consumed; }
+
+	/**
+	 * Retrieves the routing key of this event.<br>
+	 * Subscribers with a {@link Subscribe#key()} only receive events with the
+	 * same routing key. Sub classes override this method to route their events,
+	 * the key should not change once the event has been posted.
+	 * 
+	 * @return the routing key of this event, by default null
+	 */
+	public String getRoutingKey()
+	{ return null; }
+
+	/**
+	 * @return the time stamp of when this event was created
+	 */
+	public long getTimeStamp()
+	{ return this.timeStamp; }
+
+	/**
+	 * Resolves the captured {@link #callerFrame} into the calling class and
+	 * method.
+	 */
+	private void resolveCaller()
+	{
+		StackFrame frame = this.callerFrame;
+		if (frame == null)
+			return;
+
+		Class<?> cls = frame.getDeclaringClass();
+		MethodType type = frame.getMethodType();
+		try
+		{
+			this.callingMethod = cls.getDeclaredMethod(frame.getMethodName(), type.parameterArray());
+		} catch (NoSuchMethodException | SecurityException e)
+		{
+			this.callingMethod = null;
+		}
+		this.callingClass = cls;
+		this.callerFrame = null;
+	}
+
 	@Override
 	public String toString()
 	{
-		return "EventBase [timeStamp=" + timeStamp + ", callingClass=" + callingClass + ", callingMethod="
-				+ callingMethod + "]";
+		return "EventBase [timeStamp=" + timeStamp + ", callingClass=" + getCallingClass() + ", callingMethod="
+				+ getCallingMethod() + "]";
 	}
 
 }
@@ -0,0 +1,277 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import at.flockenberger.flocklib.flockutil.ReflectUtils;
+
+/**
+ * <h1>EventCoalescer</h1><br>
+ * Holds back the events of coalesced event types of a {@link FlockBus} until
+ * the next flush.<br>
+ * Every coalesced type has a key function. Of all events with the same key that
+ * are posted between two flushes only the latest one is kept. On a flush the
+ * kept events are posted to the regular subscribers one by one and handed to
+ * the batch subscribers of the type as a single {@link List}.
+ *
+ * @author Florian Wagner
+ *
+ */
+final class EventCoalescer
+{
+	/**
+	 * the scheduler of all timed flushes, cancelled flushes are removed from its
+	 * queue right away
+	 */
+	private static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+	/**
+	 * marks event classes that are not coalesced in {@link #resolved}
+	 */
+	private static final Rule NONE = new Rule(Object.class, e -> null);
+
+	/**
+	 * the bus the events are flushed to
+	 */
+	private final FlockBus bus;
+
+	/**
+	 * the configured rules in order of configuration
+	 */
+	private final List<Rule> rules;
+
+	/**
+	 * the rule of every concrete event class that has been posted
+	 */
+	private final Map<Class<?>, Rule> resolved;
+
+	/**
+	 * the number of events that have been replaced by a newer event
+	 */
+	private final LongAdder merged;
+
+	/**
+	 * the timed flush of this coalescer, if any
+	 */
+	private ScheduledFuture<?> timedFlush;
+
+	private static ScheduledExecutorService createScheduler()
+	{
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "FlockBus-Coalescer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+
+	EventCoalescer(FlockBus bus)
+	{
+		this.bus = bus;
+		this.rules = new CopyOnWriteArrayList<Rule>();
+		this.resolved = new ConcurrentHashMap<Class<?>, Rule>();
+		this.merged = new LongAdder();
+	}
+
+	/**
+	 * Coalesces all events of the given type and its sub types by the given key.
+	 *
+	 * @param type        the event type to coalesce
+	 * @param keyFunction extracts the key of an event
+	 */
+	void add(Class<?> type, Function<Object, ?> keyFunction)
+	{
+		remove(type);
+		rules.add(new Rule(type, keyFunction));
+		resolved.clear();
+	}
+
+	/**
+	 * Stops coalescing the given type, events that are held back are flushed.
+	 *
+	 * @param type the event type to stop coalescing
+	 */
+	void remove(Class<?> type)
+	{
+		for (Rule rule : rules)
+		{
+			if (rule.type == type)
+			{
+				rules.remove(rule);
+				synchronized (rule)
+				{
+					rule.removed = true;
+				}
+				resolved.clear();
+				flush(rule);
+			}
+		}
+	}
+
+	/**
+	 * Holds back the given event if its type is coalesced.
+	 *
+	 * @param event the posted event
+	 * @return true if the event is held back, false if it should be delivered
+	 */
+	boolean offer(EventBase event)
+	{
+		while (true)
+		{
+			Rule rule = resolved.get(event.getClass());
+			if (rule == null)
+				rule = resolved.computeIfAbsent(event.getClass(), this::findRule);
+			if (rule == NONE)
+				return false;
+
+			Object key = rule.keyFunction.apply(event);
+			if (key == null)
+				return false;
+
+			synchronized (rule)
+			{
+				// a removed rule has been or is being flushed for the last time
+				if (!rule.removed)
+				{
+					if (rule.pending.remove(key) != null)
+						merged.increment();
+					rule.pending.put(key, event);
+					return true;
+				}
+			}
+			resolved.remove(event.getClass(), rule);
+		}
+	}
+
+	private Rule findRule(Class<?> eventClass)
+	{
+		for (Class<?> type : ReflectUtils.getTypeHierarchy(eventClass))
+			for (Rule rule : rules)
+				if (rule.type == type)
+					return rule;
+		return NONE;
+	}
+
+	/**
+	 * Flushes the held back events of all coalesced types.
+	 */
+	void flush()
+	{
+		for (Rule rule : rules)
+			flush(rule);
+	}
+
+	private void flush(Rule rule)
+	{
+		List<EventBase> batch;
+		synchronized (rule)
+		{
+			if (rule.pending.isEmpty())
+				return;
+			batch = new ArrayList<EventBase>(rule.pending.values());
+			rule.pending.clear();
+		}
+
+		for (EventBase event : batch)
+			bus.publish(event);
+		bus.publishBatch(rule.type, batch);
+	}
+
+	/**
+	 * Flushes this coalescer periodically.
+	 *
+	 * @param window the time between two flushes, 0 to disable timed flushes
+	 * @param unit   the unit of <code>window</code>
+	 */
+	synchronized void setWindow(long window, TimeUnit unit)
+	{
+		if (timedFlush != null)
+			timedFlush.cancel(false);
+		timedFlush = null;
+		if (window > 0)
+		{
+			TimedFlush task = new TimedFlush(this);
+			timedFlush = task.future = SCHEDULER.scheduleAtFixedRate(task, window, window, unit);
+		}
+	}
+
+	/**
+	 * Stops the timed flush and flushes all held back events, called when the
+	 * bus shuts down.
+	 */
+	void close()
+	{
+		setWindow(0, TimeUnit.MILLISECONDS);
+		flush();
+	}
+
+	/**
+	 * @return the number of events that have been replaced by a newer event
+	 */
+	long getMergedCount()
+	{ return merged.sum(); }
+
+	/**
+	 * The timed flush of a coalescer.<br>
+	 * The shared scheduler only holds the coalescer weakly, so a bus that is no
+	 * longer used can be collected, its flush cancels itself afterwards.
+	 */
+	private static final class TimedFlush implements Runnable
+	{
+		final WeakReference<EventCoalescer> coalescer;
+		volatile ScheduledFuture<?> future;
+
+		TimedFlush(EventCoalescer coalescer)
+		{
+			this.coalescer = new WeakReference<EventCoalescer>(coalescer);
+		}
+
+		@Override
+		public void run()
+		{
+			EventCoalescer coalescer = this.coalescer.get();
+			if (coalescer != null)
+			{
+				coalescer.flush();
+				return;
+			}
+			ScheduledFuture<?> future = this.future;
+			if (future != null)
+				future.cancel(false);
+		}
+	}
+
+	/**
+	 * The coalescing configuration and the held back events of one event type.
+	 */
+	private static final class Rule
+	{
+		final Class<?> type;
+		final Function<Object, ?> keyFunction;
+		final Map<Object, EventBase> pending;
+
+		/**
+		 * set once the rule has been removed, guarded by the rule
+		 */
+		boolean removed;
+
+		Rule(Class<?> type, Function<Object, ?> keyFunction)
+		{
+			this.type = type;
+			this.keyFunction = keyFunction;
+			this.pending = new LinkedHashMap<Object, EventBase>();
+		}
+	}
+}
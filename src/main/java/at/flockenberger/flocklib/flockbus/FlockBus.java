@@ -1,9 +1,19 @@
 package at.flockenberger.flocklib.flockbus;
 
 import java.io.Serializable;
+import java.lang.StackWalker.Option;
+import java.lang.StackWalker.StackFrame;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import at.flockenberger.flocklib.flockutil.ObjectUtils;
-import at.flockenberger.flocklib.flockutil.ReflectUtils;
 
 /**
  * <h1>FlockBus</h1><br>
@@ -35,9 +45,92 @@ public class FlockBus implements Serializable
 	private SubscriberRegistry subRegistry;
 
 	/**
-	 * the caller depth for the calling class and method
+	 * the maximum number of stack frames that are inspected to find the caller
 	 */
-	private final int CALLER_DEPTH = 5;
+	private static final int MAX_CALLER_FRAMES = 16;
+
+	/**
+	 * the minimum time between two printed subscriber exceptions of a bus
+	 */
+	private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * the stack walker used to capture the caller of {@link #postEvent(EventBase)}
+	 */
+	private static final StackWalker WALKER = StackWalker.getInstance(Option.RETAIN_CLASS_REFERENCE);
+
+	/**
+	 * caches whether an event type is annotated with {@link CaptureCaller}
+	 */
+	private static final ClassValue<Boolean> CAPTURE_TYPES = new ClassValue<Boolean>()
+	{
+		@Override
+		protected Boolean computeValue(Class<?> type)
+		{
+			return type.isAnnotationPresent(CaptureCaller.class);
+		}
+	};
+
+	/**
+	 * caches whether an event type is annotated with {@link Sticky}
+	 */
+	private static final ClassValue<Boolean> STICKY_TYPES = new ClassValue<Boolean>()
+	{
+		@Override
+		protected Boolean computeValue(Class<?> type)
+		{
+			return type.isAnnotationPresent(Sticky.class);
+		}
+	};
+
+	/**
+	 * flag that enables caller capture for all events posted to this bus
+	 */
+	private volatile boolean captureCaller;
+
+	/**
+	 * holds back events of coalesced event types, null until the first type is
+	 * coalesced
+	 */
+	private transient volatile EventCoalescer coalescer;
+
+	/**
+	 * the metrics of this bus, null if metrics are disabled
+	 */
+	private transient volatile BusMetrics metrics;
+
+	/**
+	 * keeps the latest events of sticky event types, null until the first sticky
+	 * event is delivered or a sticky type is configured
+	 */
+	private transient volatile StickyEventCache stickyEvents;
+
+	/**
+	 * the handler of subscriber exceptions, null for
+	 * {@link SubscriberExceptionHandler#DEFAULT}
+	 */
+	private transient volatile SubscriberExceptionHandler exceptionHandler;
+
+	/**
+	 * the number of exceptions thrown by subscribers
+	 */
+	private final LongAdder failures;
+
+	/**
+	 * the number of events that had no subscriber
+	 */
+	private final LongAdder deadEvents;
+
+	/**
+	 * the time after which the next unhandled subscriber exception is printed
+	 */
+	private final AtomicLong nextReport;
+
+	/**
+	 * the number of unhandled subscriber exceptions that have not been printed
+	 * since the last printed one
+	 */
+	private final LongAdder unreported;
 
 	/**
 	 * This method can be used to retrieve the global {@link FlockBus} instance.<br>
@@ -73,6 +166,10 @@ public class FlockBus implements Serializable
 	{
 		this.name = ObjectUtils.notNull(name);
 		this.subRegistry = new SubscriberRegistry();
+		this.failures = new LongAdder();
+		this.deadEvents = new LongAdder();
+		this.nextReport = new AtomicLong(System.nanoTime());
+		this.unreported = new LongAdder();
 	}
 
 	/**
@@ -83,7 +180,79 @@ public class FlockBus implements Serializable
 	 */
 	public <T extends Object> void register(T object)
 	{
-		this.subRegistry.register(object);
+		register(object, ReferenceMode.STRONG);
+	}
+
+	/**
+	 * Registers an {@link Object} to the bus.<br>
+	 * With {@link ReferenceMode#WEAK} or {@link ReferenceMode#SOFT} the bus does
+	 * not keep the object reachable. Once it has been garbage collected its
+	 * subscribers are removed from the bus, even if {@link #unregister(Object)}
+	 * was never called.<br>
+	 * The kept events of {@link Sticky} event types are replayed to the
+	 * subscribers of the object right away, except for the ones that have been
+	 * consumed. An event that is posted while the object registers may be
+	 * received twice, but is never missed.
+	 * 
+	 * @param <T>    any object that extends {@link Object}
+	 * @param object the object to register to this bus
+	 * @param mode   how the bus references the object
+	 */
+	public <T extends Object> void register(T object, ReferenceMode mode)
+	{
+		ObjectUtils.isNullThrow(mode);
+		List<Subscriber> created = this.subRegistry.register(object, mode);
+		StickyEventCache stickyEvents = this.stickyEvents;
+		if (stickyEvents != null)
+			replaySticky(stickyEvents, created);
+	}
+
+	/**
+	 * Dispatches the kept sticky events to the given new subscribers.<br>
+	 * Only the events of the types the subscribers accept are looked up, events
+	 * that have been consumed are not replayed.
+	 */
+	private void replaySticky(StickyEventCache stickyEvents, List<Subscriber> subscribers)
+	{
+		Set<Class<?>> types = new HashSet<Class<?>>();
+		for (Subscriber subscriber : subscribers)
+			if (!subscriber.getSubscriberMethod().batch)
+				types.add(subscriber.getSubscriberMethod().eventType);
+		if (types.isEmpty())
+			return;
+
+		List<EventBase> events = stickyEvents.get(types);
+		if (events.isEmpty())
+			return;
+
+		for (Subscriber subscriber : subscribers)
+		{
+			if (subscriber.getSubscriberMethod().batch)
+				continue;
+			for (EventBase event : events)
+				if (!event.isConsumed() && subscriber.accepts(event))
+					dispatch(subscriber, event);
+		}
+	}
+
+	/**
+	 * Registers a named filter that subscribers can refer to with
+	 * {@link Subscribe#filter()}.<br>
+	 * An event only reaches a subscriber with a filter if it is an instance of
+	 * <code>type</code> and passes the filter. The filter is checked before the
+	 * subscriber is invoked, so it should be cheap. Objects with subscribers that
+	 * refer to the filter have to be registered after the filter.
+	 * 
+	 * @param <T>    any event that extends {@link EventBase}
+	 * @param name   the name of the filter
+	 * @param type   the event type the filter accepts
+	 * @param filter the filter
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends EventBase> void registerFilter(String name, Class<T> type, Predicate<? super T> filter)
+	{
+		ObjectUtils.isAnyNullThrow(name, type, filter);
+		this.subRegistry.registerFilter(name, event -> type.isInstance(event) && filter.test((T) event));
 	}
 
 	/**
@@ -108,11 +277,505 @@ public class FlockBus implements Serializable
 	public <T extends EventBase> void postEvent(T event)
 	{
 		ObjectUtils.isNullThrow(event);
-		event.callingMethod = ReflectUtils.getCallingMethod(CALLER_DEPTH);
-		event.callingClass = ReflectUtils.getCallingClass(CALLER_DEPTH);
-		this.subRegistry.postEvent(event);
+		ensureOpen();
+		if (captureCaller || CAPTURE_TYPES.get(event.getClass()))
+			event.callerFrame = findCaller();
+		BusMetrics metrics = this.metrics;
+		if (metrics != null)
+			metrics.recordPost(event.getClass());
+		EventCoalescer coalescer = this.coalescer;
+		if (coalescer != null && coalescer.offer(event))
+			return;
+		publish(event);
+	}
+
+	/**
+	 * Coalesces events of the given type <code>type</code> and its sub
+	 * types.<br>
+	 * Posted events of a coalesced type are held back until the next
+	 * {@link #flushCoalesced()} or until the window set by
+	 * {@link #setCoalescingWindow(long, TimeUnit)} elapsed. Of all held back
+	 * events with the same key only the latest is kept. On a flush the kept events
+	 * are delivered to the regular subscribers and, as one {@link List}, to all
+	 * subscribers that take a <code>List</code> of <code>type</code> or one of
+	 * its super types.<br>
+	 * Events whose key is null are not coalesced. The held back events are
+	 * posted by the thread that flushes them, so a bus that only allows one
+	 * posting thread, like a {@link RingBufferFlockBus} with a
+	 * {@link ProducerType#SINGLE} producer, rejects coalescing.
+	 * 
+	 * @param <T>         any event that extends {@link EventBase}
+	 * @param type        the event type to coalesce
+	 * @param keyFunction extracts the coalescing key of an event
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends EventBase> void coalesce(Class<T> type, Function<? super T, ?> keyFunction)
+	{
+		ObjectUtils.isAnyNullThrow(type, keyFunction);
+		coalescer().add(type, (Function<Object, ?>) keyFunction);
+	}
+
+	/**
+	 * Stops coalescing the given event type.<br>
+	 * Events of this type that are currently held back are delivered.
+	 * 
+	 * @param type the event type to stop coalescing
+	 */
+	public void stopCoalescing(Class<? extends EventBase> type)
+	{
+		EventCoalescer coalescer = this.coalescer;
+		if (coalescer != null)
+			coalescer.remove(type);
 	}
 
+	/**
+	 * Delivers all held back events of coalesced event types.<br>
+	 * This method can be called once per tick of an update loop, see
+	 * {@link #coalesce(Class, Function)}.
+	 */
+	public void flushCoalesced()
+	{
+		EventCoalescer coalescer = this.coalescer;
+		if (coalescer != null)
+			coalescer.flush();
+	}
+
+	/**
+	 * Sets the time window after which held back events of coalesced event types
+	 * are delivered automatically.<br>
+	 * The timed flush runs on a shared background thread.
+	 * 
+	 * @param window the time between two flushes, 0 to only flush on
+	 *               {@link #flushCoalesced()}
+	 * @param unit   the unit of <code>window</code>
+	 */
+	public void setCoalescingWindow(long window, TimeUnit unit)
+	{
+		ObjectUtils.isNullThrow(unit);
+		coalescer().setWindow(window, unit);
+	}
+
+	/**
+	 * @return the number of coalesced events that have been replaced by a newer
+	 *         event with the same key and thus were never delivered
+	 */
+	public long getCoalescedCount()
+	{
+		EventCoalescer coalescer = this.coalescer;
+		return coalescer == null ? 0 : coalescer.getMergedCount();
+	}
+
+	/**
+	 * Stops the timed flush of coalesced events and delivers the held back
+	 * events, called by buses that shut down before they stop accepting events.
+	 */
+	void closeCoalescer()
+	{
+		EventCoalescer coalescer = this.coalescer;
+		if (coalescer != null)
+			coalescer.close();
+	}
+
+	private EventCoalescer coalescer()
+	{
+		EventCoalescer coalescer = this.coalescer;
+		if (coalescer == null)
+		{
+			synchronized (this)
+			{
+				coalescer = this.coalescer;
+				if (coalescer == null)
+					this.coalescer = coalescer = new EventCoalescer(this);
+			}
+		}
+		return coalescer;
+	}
+
+	/**
+	 * Makes the given event type and all of its sub types sticky, or changes
+	 * their capacity.<br>
+	 * This overrides the {@link Sticky} annotation, a capacity of 0 makes the
+	 * type non sticky.
+	 * 
+	 * @param type     the event type
+	 * @param capacity the number of events that are kept per concrete event
+	 *                 class
+	 */
+	public void setStickyCapacity(Class<? extends EventBase> type, int capacity)
+	{
+		ObjectUtils.isNullThrow(type);
+		stickyEvents().setCapacity(type, capacity);
+	}
+
+	/**
+	 * Sets the maximum number of sticky events this bus keeps over all event
+	 * types.<br>
+	 * If the limit is exceeded the oldest kept event is evicted. The default is
+	 * {@value StickyEventCache#DEFAULT_MAX_EVENTS}.
+	 * 
+	 * @param maxEvents the maximum number of kept sticky events
+	 */
+	public void setMaxStickyEvents(int maxEvents)
+	{
+		stickyEvents().setMaxEvents(maxEvents);
+	}
+
+	/**
+	 * @return the maximum number of sticky events this bus keeps over all event
+	 *         types
+	 */
+	public int getMaxStickyEvents()
+	{
+		StickyEventCache stickyEvents = this.stickyEvents;
+		return stickyEvents == null ? StickyEventCache.DEFAULT_MAX_EVENTS : stickyEvents.getMaxEvents();
+	}
+
+	/**
+	 * Retrieves the kept sticky events of the given type.
+	 * 
+	 * @param <T>  any event that extends {@link EventBase}
+	 * @param type the event type
+	 * @return the kept events of the type and its sub types, oldest first
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends EventBase> List<T> getStickyEvents(Class<T> type)
+	{
+		ObjectUtils.isNullThrow(type);
+		StickyEventCache stickyEvents = this.stickyEvents;
+		return stickyEvents == null ? Collections.emptyList() : (List<T>) stickyEvents.get(type);
+	}
+
+	/**
+	 * Retrieves the latest kept sticky event of the given type.
+	 * 
+	 * @param <T>  any event that extends {@link EventBase}
+	 * @param type the event type
+	 * @return the latest kept event of the type and its sub types or null if
+	 *         there is none
+	 */
+	public <T extends EventBase> T getStickyEvent(Class<T> type)
+	{
+		List<T> events = getStickyEvents(type);
+		return events.isEmpty() ? null : events.get(events.size() - 1);
+	}
+
+	/**
+	 * Removes the kept sticky events of the given type that match the given
+	 * filter.<br>
+	 * Removed events are not replayed to subscribers that register later.
+	 * 
+	 * @param <T>    any event that extends {@link EventBase}
+	 * @param type   the event type
+	 * @param filter the filter of the events to remove
+	 * @return the number of removed events
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends EventBase> int removeStickyEvents(Class<T> type, Predicate<? super T> filter)
+	{
+		ObjectUtils.isAnyNullThrow(type, filter);
+		StickyEventCache stickyEvents = this.stickyEvents;
+		return stickyEvents == null ? 0 : stickyEvents.remove(type, (Predicate<Object>) filter);
+	}
+
+	/**
+	 * Removes all kept sticky events of the given type and its sub types.
+	 * 
+	 * @param type the event type
+	 * @return the number of removed events
+	 */
+	public int removeStickyEvents(Class<? extends EventBase> type)
+	{
+		ObjectUtils.isNullThrow(type);
+		StickyEventCache stickyEvents = this.stickyEvents;
+		return stickyEvents == null ? 0 : stickyEvents.remove(type, null);
+	}
+
+	/**
+	 * @return the number of sticky events that have been evicted because their
+	 *         type or the bus exceeded its capacity
+	 */
+	public long getStickyEvictionCount()
+	{
+		StickyEventCache stickyEvents = this.stickyEvents;
+		return stickyEvents == null ? 0 : stickyEvents.getEvictedCount();
+	}
+
+	private StickyEventCache stickyEvents()
+	{
+		StickyEventCache stickyEvents = this.stickyEvents;
+		if (stickyEvents == null)
+		{
+			synchronized (this)
+			{
+				stickyEvents = this.stickyEvents;
+				if (stickyEvents == null)
+					this.stickyEvents = stickyEvents = new StickyEventCache();
+			}
+		}
+		return stickyEvents;
+	}
+
+	/**
+	 * Enables or disables caller capture for this bus.<br>
+	 * If enabled every posted event remembers the class and method that called
+	 * {@link #postEvent(EventBase)}, see {@link EventBase#getCallingClass()} and
+	 * {@link EventBase#getCallingMethod()}. Capturing costs a short stack walk per
+	 * post, so it is disabled by default. Single event types can opt in with the
+	 * {@link CaptureCaller} annotation.
+	 * 
+	 * @param captureCaller true to capture the caller of every posted event
+	 */
+	public void setCaptureCaller(boolean captureCaller)
+	{
+		this.captureCaller = captureCaller;
+	}
+
+	/**
+	 * @return true if the caller of every posted event is captured
+	 */
+	public boolean isCaptureCaller()
+	{ return this.captureCaller; }
+
+	/**
+	 * Walks at most {@link #MAX_CALLER_FRAMES} frames and returns the first one
+	 * that does not belong to the bus itself.
+	 * 
+	 * @return the frame of the caller or null if none was found
+	 */
+	private static StackFrame findCaller()
+	{
+		return WALKER.walk(frames -> frames.limit(MAX_CALLER_FRAMES)
+				.filter(frame -> frame.getDeclaringClass().getPackage() != FlockBus.class.getPackage()).findFirst()
+				.orElse(null));
+	}
+
+	/**
+	 * Called before an event is posted.<br>
+	 * Subclasses may throw an {@link IllegalStateException} if they do not accept
+	 * any events anymore.
+	 */
+	void ensureOpen()
+	{}
+
+	/**
+	 * Hands a posted event over for delivery.<br>
+	 * The default implementation delivers the event right away on the posting
+	 * thread. Subclasses like {@link RingBufferFlockBus} override this method to
+	 * buffer the event and call {@link #deliver(EventBase)} later.
+	 * 
+	 * @param event the posted event
+	 */
+	void publish(EventBase event)
+	{
+		deliver(event);
+	}
+
+	/**
+	 * Delivers the given event to all of its subscribers.<br>
+	 * Events of sticky types are kept for later subscribers, any other event
+	 * without a subscriber is delivered as a {@link DeadEvent} instead.
+	 * 
+	 * @param event the event to deliver
+	 */
+	final void deliver(EventBase event)
+	{
+		StickyEventCache stickyEvents = this.stickyEvents;
+		boolean kept = stickyEvents != null ? stickyEvents.offer(event)
+				: STICKY_TYPES.get(event.getClass()) && stickyEvents().offer(event);
+		if (this.subRegistry.postEvent(event, this) || kept)
+			return;
+
+		this.deadEvents.increment();
+		if (!(event instanceof DeadEvent) && this.subRegistry.hasSubscribers(DeadEvent.class))
+			this.subRegistry.postEvent(new DeadEvent(this, event), this);
+	}
+
+	/**
+	 * Delivers a flushed batch of coalesced events to the batch subscribers.
+	 * 
+	 * @param type  the coalesced event type
+	 * @param batch the events to deliver
+	 */
+	void publishBatch(Class<?> type, List<EventBase> batch)
+	{
+		this.subRegistry.postBatch(type, Collections.unmodifiableList(batch), this);
+	}
+
+	/**
+	 * Delivers the given event to a single {@link Subscriber}.<br>
+	 * The default implementation invokes the subscriber directly on the posting
+	 * thread. Subclasses like {@link AsyncFlockBus} override this method to change
+	 * where and when the subscriber runs.
+	 * 
+	 * @param subscriber the subscriber to deliver the event to
+	 * @param event      the event or batch of events to deliver
+	 */
+	void dispatch(Subscriber subscriber, Object event)
+	{
+		invokeSubscriber(subscriber, event);
+	}
+
+	/**
+	 * Invokes a single {@link Subscriber} on the current thread.<br>
+	 * Exceptions thrown by the subscriber are caught, if metrics are enabled the
+	 * invocation is measured.
+	 * 
+	 * @param subscriber the subscriber to invoke
+	 * @param event      the event or batch of events to pass
+	 */
+	final void invokeSubscriber(Subscriber subscriber, Object event)
+	{
+		BusMetrics metrics = this.metrics;
+		if (metrics == null)
+		{
+			try
+			{
+				subscriber.invoke(event);
+			} catch (Exception e)
+			{
+				handleException(subscriber, event, e);
+			}
+			return;
+		}
+
+		boolean failed = false;
+		long start = System.nanoTime();
+		try
+		{
+			subscriber.invoke(event);
+		} catch (Exception e)
+		{
+			failed = true;
+			handleException(subscriber, event, e);
+		} finally
+		{
+			metrics.recordInvocation(subscriber, event, System.nanoTime() - start, failed);
+		}
+	}
+
+	/**
+	 * Counts the given exception and passes it to the
+	 * {@link SubscriberExceptionHandler} of this bus.
+	 */
+	private void handleException(Subscriber subscriber, Object event, Exception exception)
+	{
+		this.failures.increment();
+		SubscriberExceptionHandler handler = this.exceptionHandler;
+		if (handler == null)
+			handler = SubscriberExceptionHandler.DEFAULT;
+		try
+		{
+			handler.handleException(new SubscriberExceptionEvent(this, subscriber, event, exception));
+		} catch (Exception e)
+		{
+			reportException(e);
+		}
+	}
+
+	/**
+	 * Prints the stack trace of an exception nobody handled to
+	 * {@link System#err}.<br>
+	 * At most one exception per second is printed, the ones in between are only
+	 * counted and their number is printed with the next one. All of them are
+	 * counted by {@link #getFailureCount()} anyway.
+	 * 
+	 * @param exception the unhandled exception
+	 */
+	void reportException(Throwable exception)
+	{
+		long now = System.nanoTime();
+		long next = this.nextReport.get();
+		if (now - next < 0 || !this.nextReport.compareAndSet(next, now + REPORT_INTERVAL_NANOS))
+		{
+			this.unreported.increment();
+			return;
+		}
+		long skipped = this.unreported.sumThenReset();
+		if (skipped > 0)
+			System.err.println("FlockBus " + this.name + ": " + skipped + " more subscriber exceptions were not printed");
+		exception.printStackTrace();
+	}
+
+	/**
+	 * Sets the handler of exceptions thrown by subscribers of this bus.<br>
+	 * By default every exception is delivered to this bus as a
+	 * {@link SubscriberExceptionEvent}, see
+	 * {@link SubscriberExceptionHandler#DEFAULT}.
+	 * 
+	 * @param exceptionHandler the handler or null to restore the default handler
+	 */
+	public void setExceptionHandler(SubscriberExceptionHandler exceptionHandler)
+	{
+		this.exceptionHandler = exceptionHandler;
+	}
+
+	/**
+	 * @return the handler of exceptions thrown by subscribers of this bus
+	 */
+	public SubscriberExceptionHandler getExceptionHandler()
+	{
+		SubscriberExceptionHandler handler = this.exceptionHandler;
+		return handler == null ? SubscriberExceptionHandler.DEFAULT : handler;
+	}
+
+	/**
+	 * @return the number of exceptions that have been thrown by subscribers of
+	 *         this bus
+	 */
+	public long getFailureCount()
+	{ return this.failures.sum(); }
+
+	/**
+	 * @return the number of events that have been posted to this bus without
+	 *         having any subscriber, see {@link DeadEvent}
+	 */
+	public long getDeadEventCount()
+	{ return this.deadEvents.sum(); }
+
+	/**
+	 * @param eventClass the class of an event
+	 * @return true if at least one subscriber of this bus receives events of the
+	 *         given class, either directly or through one of its super types
+	 */
+	public boolean hasSubscribers(Class<? extends EventBase> eventClass)
+	{
+		ObjectUtils.isNullThrow(eventClass);
+		return this.subRegistry.hasSubscribers(eventClass);
+	}
+
+	/**
+	 * Enables the metrics of this bus.<br>
+	 * From now on the posts of every event class, the latency of every subscriber
+	 * method and the exceptions thrown by subscribers are recorded. If metrics
+	 * are already enabled the existing {@link BusMetrics} are returned.
+	 * 
+	 * @return the metrics of this bus
+	 */
+	public BusMetrics enableMetrics()
+	{
+		synchronized (this)
+		{
+			if (this.metrics == null)
+				this.metrics = new BusMetrics(this);
+			return this.metrics;
+		}
+	}
+
+	/**
+	 * Disables the metrics of this bus.<br>
+	 * A disabled bus only pays a single null check per post and invocation.
+	 */
+	public void disableMetrics()
+	{
+		this.metrics = null;
+	}
+
+	/**
+	 * @return the metrics of this bus or null if metrics are disabled
+	 */
+	public BusMetrics getMetrics()
+	{ return this.metrics; }
+
 	/**
 	 * @return the name of this bus
 	 */
@@ -0,0 +1,169 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <h1>LatencyHistogram</h1><br>
+ * A fixed size, log-linear histogram of latencies in nanoseconds.<br>
+ * Every power of two is split into {@value #SUB_BUCKETS} linear buckets, so a
+ * recorded value is off by at most 12.5%. All buckets are allocated up front,
+ * recording a value only increments an atomic counter and never allocates.
+ *
+ * @author Florian Wagner
+ *
+ */
+public final class LatencyHistogram
+{
+	/**
+	 * log2 of {@link #SUB_BUCKETS}
+	 */
+	private static final int SUB_BITS = 3;
+
+	/**
+	 * the number of linear buckets per power of two
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/**
+	 * the total number of buckets, enough for every positive long
+	 */
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	/**
+	 * the counts of every bucket
+	 */
+	private final AtomicLongArray counts;
+
+	/**
+	 * the number of recorded values
+	 */
+	private final AtomicLong count;
+
+	/**
+	 * the sum of all recorded values
+	 */
+	private final AtomicLong sum;
+
+	/**
+	 * the largest recorded value
+	 */
+	private final AtomicLong max;
+
+	/**
+	 * Creates a new empty histogram.
+	 */
+	public LatencyHistogram()
+	{
+		this.counts = new AtomicLongArray(BUCKETS);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param nanos the latency in nanoseconds, negative values are recorded as 0
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(indexOf(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos))
+			;
+	}
+
+	private static int indexOf(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BITS;
+		return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * @return the largest value that falls into the bucket with the given index
+	 */
+	private static long upperBoundOf(int index)
+	{
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = (index >>> SUB_BITS) - 1;
+		long lower = ((long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1)))) << shift;
+		return lower + (1L << shift) - 1;
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount()
+	{ return count.get(); }
+
+	/**
+	 * @return the largest recorded value in nanoseconds
+	 */
+	public long getMax()
+	{ return max.get(); }
+
+	/**
+	 * @return the mean of all recorded values in nanoseconds or 0 if nothing has
+	 *         been recorded
+	 */
+	public double getMean()
+	{
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Retrieves the value below which the given percentage of all recorded values
+	 * fall.
+	 *
+	 * @param percentile the percentile between 0 and 100
+	 * @return the percentile in nanoseconds or 0 if nothing has been recorded
+	 */
+	public long getPercentile(double percentile)
+	{
+		long n = count.get();
+		if (n == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(upperBoundOf(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * @return a copy of this histogram
+	 */
+	public LatencyHistogram copy()
+	{
+		LatencyHistogram copy = new LatencyHistogram();
+		for (int i = 0; i < BUCKETS; i++)
+			copy.counts.set(i, counts.get(i));
+		copy.count.set(count.get());
+		copy.sum.set(sum.get());
+		copy.max.set(max.get());
+		return copy;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "LatencyHistogram [count=" + getCount() + ", mean=" + (long) getMean() + ", p50=" + getPercentile(50)
+				+ ", p99=" + getPercentile(99) + ", max=" + getMax() + "]";
+	}
+}
@@ -0,0 +1,23 @@
+package at.flockenberger.flocklib.flockbus;
+
+/**
+ * <h1>ProducerType</h1><br>
+ * Defines how many threads post events to a {@link RingBufferFlockBus}.
+ * 
+ * @author Florian Wagner
+ *
+ */
+public enum ProducerType
+{
+	/**
+	 * Only a single thread posts events.<br>
+	 * Claiming a slot in the ring does not need any atomic operation. Posting
+	 * from more than one thread corrupts the ring!
+	 */
+	SINGLE,
+	/**
+	 * Any number of threads post events.<br>
+	 * Slots are claimed with an atomic increment.
+	 */
+	MULTI;
+}
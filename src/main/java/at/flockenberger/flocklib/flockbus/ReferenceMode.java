@@ -0,0 +1,32 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+/**
+ * <h1>ReferenceMode</h1><br>
+ * Defines how a {@link FlockBus} references a registered object, see
+ * {@link FlockBus#register(Object, ReferenceMode)}.
+ * 
+ * @author Florian Wagner
+ *
+ */
+public enum ReferenceMode
+{
+	/**
+	 * The bus keeps the object reachable until it is unregistered.
+	 */
+	STRONG,
+	/**
+	 * The bus references the object with a {@link WeakReference}.<br>
+	 * Once the object is not reachable from anywhere else it is garbage collected
+	 * and its subscribers are removed from the bus.
+	 */
+	WEAK,
+	/**
+	 * The bus references the object with a {@link SoftReference}.<br>
+	 * The object is kept until the garbage collector needs the memory, then its
+	 * subscribers are removed from the bus.
+	 */
+	SOFT;
+}
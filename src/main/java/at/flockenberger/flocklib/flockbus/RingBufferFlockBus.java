@@ -0,0 +1,334 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
+
+/**
+ * <h1>RingBufferFlockBus</h1><br>
+ * A {@link FlockBus} that passes posted events through a pre-allocated ring
+ * of slots to a single consumer thread, which delivers them to the
+ * subscribers.<br>
+ * Posting claims the next slot, stores the event and publishes the slot. No
+ * queue nodes or other objects are allocated per event. The consumer takes all
+ * published slots at once and delivers them as one batch before it releases
+ * the slots to the producers again. If the ring is full producers wait for the
+ * consumer.<br>
+ * Events are delivered in the order they were published. Subscribers must not
+ * post to the same bus while the ring is full, they would wait for
+ * themselves.<br>
+ * Call {@link #shutdown()} to deliver all pending events and stop the consumer
+ * thread.<br>
+ * A ring with a {@link ProducerType#SINGLE} producer can not coalesce events,
+ * the flushes would post from another thread than the producer.
+ *
+ * @author Florian Wagner
+ *
+ */
+public class RingBufferFlockBus extends FlockBus
+{
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 2948390145533017236L;
+
+	/**
+	 * the default number of slots
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 14;
+
+	/**
+	 * the slots of the ring
+	 */
+	private final transient EventBase[] slots;
+
+	/**
+	 * the published sequence of every slot, a slot can be consumed once its
+	 * entry equals the sequence the consumer waits for
+	 */
+	private final transient AtomicLongArray published;
+
+	/**
+	 * <code>slots.length - 1</code>, used to map a sequence to its slot
+	 */
+	private final int mask;
+
+	/**
+	 * the producer type of this ring
+	 */
+	private final ProducerType producerType;
+
+	/**
+	 * the wait strategy of producers and the consumer
+	 */
+	private final WaitStrategy waitStrategy;
+
+	/**
+	 * the last claimed sequence of a {@link ProducerType#MULTI} ring
+	 */
+	private final transient AtomicLong claimed;
+
+	/**
+	 * the last claimed sequence of a {@link ProducerType#SINGLE} ring, volatile
+	 * so that a claim is ordered before the producer checks {@link #shutdown}
+	 * and the consumer sees it once it sees the shutdown
+	 */
+	private volatile long singleClaimed = -1;
+
+	/**
+	 * the last sequence the consumer has delivered, all slots up to this
+	 * sequence can be reused
+	 */
+	private volatile long consumed = -1;
+
+	/**
+	 * flag that indicates that this bus does not accept new events
+	 */
+	private volatile boolean shutdown;
+
+	/**
+	 * the consumer thread
+	 */
+	private final transient Thread consumer;
+
+	/**
+	 * Constructor<br>
+	 * Creates a new ring buffer bus with {@link #DEFAULT_BUFFER_SIZE} slots for
+	 * multiple producers that parks waiting threads.
+	 *
+	 * @param name the name / identifier for this bus
+	 */
+	public RingBufferFlockBus(String name)
+	{
+		this(name, DEFAULT_BUFFER_SIZE, ProducerType.MULTI, WaitStrategy.PARK);
+	}
+
+	/**
+	 * Constructor<br>
+	 * Creates a new ring buffer bus.
+	 *
+	 * @param name         the name / identifier for this bus
+	 * @param bufferSize   the number of slots, must be a power of two
+	 * @param producerType whether one or many threads post to this bus
+	 * @param waitStrategy how waiting producers and the consumer wait
+	 */
+	public RingBufferFlockBus(String name, int bufferSize, ProducerType producerType, WaitStrategy waitStrategy)
+	{
+		super(name);
+		if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1)
+			throw new IllegalArgumentException("Buffer size must be a power of two: " + bufferSize);
+
+		this.producerType = ObjectUtils.notNull(producerType, "ProducerType must not be null!");
+		this.waitStrategy = ObjectUtils.notNull(waitStrategy, "WaitStrategy must not be null!");
+		this.slots = new EventBase[bufferSize];
+		this.published = new AtomicLongArray(bufferSize);
+		for (int i = 0; i < bufferSize; i++)
+			this.published.set(i, -1);
+		this.mask = bufferSize - 1;
+		this.claimed = new AtomicLong(-1);
+
+		this.consumer = new Thread(this::consume, "RingBufferFlockBus-" + name);
+		this.consumer.setDaemon(true);
+		this.consumer.start();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalStateException if this bus has been shut down
+	 */
+	@Override
+	void ensureOpen()
+	{
+		if (shutdown)
+			throw new IllegalStateException("RingBufferFlockBus " + name() + " has been shut down!");
+	}
+
+	/**
+	 * Claims the next slot, waits until it is free and publishes the event.<br>
+	 * If the bus has been shut down while the slot was claimed, the consumer may
+	 * already have stopped, so an empty slot is published in its place and the
+	 * event is rejected. The same happens if the consumer thread died while the
+	 * producer waited for a free slot.
+	 *
+	 * @throws IllegalStateException if this bus has been shut down or its
+	 *                               consumer thread has stopped
+	 */
+	@Override
+	void publish(EventBase event)
+	{
+		long sequence = producerType == ProducerType.SINGLE ? ++singleClaimed : claimed.incrementAndGet();
+		boolean rejected = shutdown;
+		long wrapPoint = sequence - slots.length;
+		while (wrapPoint > consumed)
+		{
+			if (!consumer.isAlive())
+			{
+				rejected = true;
+				break;
+			}
+			waitStrategy.idle();
+		}
+
+		int index = (int) sequence & mask;
+		slots[index] = rejected ? null : event;
+		published.lazySet(index, sequence);
+		if (rejected)
+		{
+			ensureOpen();
+			throw new IllegalStateException("Consumer of RingBufferFlockBus " + name() + " has stopped!");
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalStateException if this ring has a
+	 *                               {@link ProducerType#SINGLE} producer, held
+	 *                               back events are flushed by the coalescing
+	 *                               thread or the thread calling
+	 *                               {@link #shutdown()}, which would be a second
+	 *                               producer
+	 */
+	@Override
+	public <T extends EventBase> void coalesce(Class<T> type, Function<? super T, ?> keyFunction)
+	{
+		ensureMultiProducer();
+		super.coalesce(type, keyFunction);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalStateException if this ring has a
+	 *                               {@link ProducerType#SINGLE} producer, see
+	 *                               {@link #coalesce(Class, Function)}
+	 */
+	@Override
+	public void setCoalescingWindow(long window, TimeUnit unit)
+	{
+		ensureMultiProducer();
+		super.setCoalescingWindow(window, unit);
+	}
+
+	private void ensureMultiProducer()
+	{
+		if (producerType == ProducerType.SINGLE)
+			throw new IllegalStateException(
+					"RingBufferFlockBus " + name() + " has a single producer and can not coalesce events!");
+	}
+
+	/**
+	 * The loop of the consumer thread.<br>
+	 * Whatever escapes the delivery of an event, e.g. an {@link Error} thrown by
+	 * a subscriber, is reported and the consumer goes on with the next event, so
+	 * the producers never wait for a consumer that has died.
+	 */
+	private void consume()
+	{
+		long next = consumed + 1;
+		while (true)
+		{
+			long available = next - 1;
+			while (available - next < mask && published.get((int) (available + 1) & mask) == available + 1)
+				available++;
+
+			if (available < next)
+			{
+				if (shutdown && claimedSequence() < next)
+					return;
+				waitStrategy.idle();
+				continue;
+			}
+
+			for (long sequence = next; sequence <= available; sequence++)
+			{
+				int index = (int) sequence & mask;
+				EventBase event = slots[index];
+				slots[index] = null;
+				if (event == null)
+					continue;
+				try
+				{
+					deliver(event);
+				} catch (Throwable t)
+				{
+					reportException(t);
+				}
+			}
+			consumed = available;
+			next = available + 1;
+		}
+	}
+
+	private long claimedSequence()
+	{
+		return producerType == ProducerType.SINGLE ? singleClaimed : claimed.get();
+	}
+
+	/**
+	 * @return the number of events that have been published but not delivered
+	 *         yet
+	 */
+	public long getBacklog()
+	{ return Math.max(0, claimedSequence() - consumed); }
+
+	/**
+	 * @return the number of slots of the ring
+	 */
+	public int getBufferSize()
+	{ return slots.length; }
+
+	/**
+	 * @return the producer type of this bus
+	 */
+	public ProducerType getProducerType()
+	{ return producerType; }
+
+	/**
+	 * @return the wait strategy of this bus
+	 */
+	public WaitStrategy getWaitStrategy()
+	{ return waitStrategy; }
+
+	/**
+	 * @return true if {@link #shutdown()} has been called
+	 */
+	public boolean isShutdown()
+	{ return shutdown; }
+
+	/**
+	 * Stops accepting new events, delivers all pending events and stops the
+	 * consumer thread.
+	 *
+	 * @throws InterruptedException if the current thread was interrupted while
+	 *                              waiting
+	 */
+	public void shutdown() throws InterruptedException
+	{
+		shutdown(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stops accepting new events and waits at most the given time until all
+	 * pending events have been delivered and the consumer thread has stopped.
+	 *
+	 * @param timeout the maximum time to wait, 0 only stops accepting events
+	 * @param unit    the unit of <code>timeout</code>
+	 * @return true if the consumer thread has stopped
+	 * @throws InterruptedException if the current thread was interrupted while
+	 *                              waiting
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		ObjectUtils.isNullThrow(unit);
+		closeCoalescer();
+		this.shutdown = true;
+		unit.timedJoin(consumer, timeout);
+		return !consumer.isAlive();
+	}
+}
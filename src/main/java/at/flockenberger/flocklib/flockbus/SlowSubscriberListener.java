@@ -0,0 +1,28 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>SlowSubscriberListener</h1><br>
+ * Called by a {@link FlockBus} with enabled metrics whenever a subscriber takes
+ * longer than the latency budget to handle an event, see
+ * {@link BusMetrics#setLatencyBudget(long, TimeUnit, SlowSubscriberListener)}.
+ * <br>
+ * The listener runs on the thread that invoked the subscriber and should return
+ * quickly.
+ * 
+ * @author Florian Wagner
+ *
+ */
+@FunctionalInterface
+public interface SlowSubscriberListener
+{
+	/**
+	 * Called after a subscriber exceeded the latency budget.
+	 * 
+	 * @param subscriber the slow subscriber
+	 * @param event      the event or batch of events it handled
+	 * @param nanos      the time the subscriber took in nanoseconds
+	 */
+	void onSlowSubscriber(Subscriber subscriber, Object event, long nanos);
+}
@@ -0,0 +1,37 @@
+package at.flockenberger.flocklib.flockbus;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * <h1>Sticky</h1><br>
+ * The {@link Sticky} annotation marks an event type whose latest events are
+ * kept by every {@link FlockBus} they are posted to.<br>
+ * Whenever an object is registered to the bus, the kept events are replayed to
+ * its subscribers in the order they were posted, so objects that register late
+ * still see the current state. Events that have been consumed, see
+ * {@link EventBase#consume()}, are kept but not replayed.<br>
+ * The annotation is inherited by all sub types of the annotated event.
+ * 
+ * @see FlockBus#setStickyCapacity(Class, int)
+ * @see FlockBus#setMaxStickyEvents(int)
+ * @author Florian Wagner
+ *
+ */
+@Inherited
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface Sticky
+{
+	/**
+	 * The number of events of each concrete event class that are kept.<br>
+	 * When the capacity is exceeded the oldest event of the class is evicted.
+	 * 
+	 * @return the capacity, defaults to the latest event only
+	 */
+	int capacity() default 1;
+}
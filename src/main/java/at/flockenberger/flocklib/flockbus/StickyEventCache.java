@@ -0,0 +1,262 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import at.flockenberger.flocklib.flockutil.ReflectUtils;
+
+/**
+ * <h1>StickyEventCache</h1><br>
+ * Keeps the latest events of sticky event types of a {@link FlockBus}.<br>
+ * Every concrete event class has its own bounded queue, see
+ * {@link Sticky#capacity()}. In addition the total number of kept events is
+ * capped for the whole bus, if it is exceeded the oldest event of all classes
+ * is evicted.
+ *
+ * @author Florian Wagner
+ *
+ */
+final class StickyEventCache
+{
+	/**
+	 * the default of {@link #maxEvents}
+	 */
+	static final int DEFAULT_MAX_EVENTS = 1024;
+
+	/**
+	 * the capacities that have been configured at runtime, they take precedence
+	 * over {@link Sticky#capacity()}
+	 */
+	private final Map<Class<?>, Integer> configured;
+
+	/**
+	 * the capacity of every concrete event class that has been posted
+	 */
+	private final Map<Class<?>, Integer> resolved;
+
+	/**
+	 * the kept events of every concrete event class, oldest first
+	 */
+	private final Map<Class<?>, ArrayDeque<Entry>> events;
+
+	/**
+	 * the number of events that have been evicted
+	 */
+	private final LongAdder evicted;
+
+	/**
+	 * the total number of kept events
+	 */
+	private int size;
+
+	/**
+	 * the maximum total number of kept events
+	 */
+	private int maxEvents;
+
+	/**
+	 * the sequence number of the next kept event
+	 */
+	private long sequence;
+
+	StickyEventCache()
+	{
+		this.configured = new ConcurrentHashMap<Class<?>, Integer>();
+		this.resolved = new ConcurrentHashMap<Class<?>, Integer>();
+		this.events = new HashMap<Class<?>, ArrayDeque<Entry>>();
+		this.evicted = new LongAdder();
+		this.maxEvents = DEFAULT_MAX_EVENTS;
+	}
+
+	/**
+	 * Keeps the given event if its type is sticky.
+	 *
+	 * @param event the delivered event
+	 * @return true if the event has been kept
+	 */
+	boolean offer(EventBase event)
+	{
+		Class<?> eventClass = event.getClass();
+		Integer capacity = resolved.get(eventClass);
+		if (capacity == null)
+			capacity = resolved.computeIfAbsent(eventClass, this::capacityOf);
+		if (capacity == 0)
+			return false;
+
+		synchronized (this)
+		{
+			ArrayDeque<Entry> queue = events.computeIfAbsent(eventClass, key -> new ArrayDeque<Entry>());
+			queue.addLast(new Entry(sequence++, event));
+			size++;
+			while (queue.size() > capacity)
+				evict(queue);
+			while (size > maxEvents)
+				evictOldest();
+		}
+		return true;
+	}
+
+	private int capacityOf(Class<?> eventClass)
+	{
+		for (Class<?> type : ReflectUtils.getTypeHierarchy(eventClass))
+		{
+			Integer capacity = configured.get(type);
+			if (capacity != null)
+				return capacity;
+		}
+		Sticky sticky = eventClass.getAnnotation(Sticky.class);
+		return sticky == null ? 0 : Math.max(0, sticky.capacity());
+	}
+
+	private void evict(ArrayDeque<Entry> queue)
+	{
+		queue.pollFirst();
+		size--;
+		evicted.increment();
+	}
+
+	private void evictOldest()
+	{
+		ArrayDeque<Entry> oldest = null;
+		for (ArrayDeque<Entry> queue : events.values())
+			if (!queue.isEmpty() && (oldest == null || queue.peekFirst().sequence < oldest.peekFirst().sequence))
+				oldest = queue;
+		if (oldest != null)
+			evict(oldest);
+	}
+
+	/**
+	 * Sets the capacity of the given event type and all of its sub types.
+	 *
+	 * @param type     the event type
+	 * @param capacity the number of events kept per concrete class, 0 to make the
+	 *                 type non sticky
+	 */
+	synchronized void setCapacity(Class<?> type, int capacity)
+	{
+		configured.put(type, Math.max(0, capacity));
+		resolved.clear();
+		for (Map.Entry<Class<?>, ArrayDeque<Entry>> entry : events.entrySet())
+		{
+			int resolvedCapacity = capacityOf(entry.getKey());
+			while (entry.getValue().size() > resolvedCapacity)
+				evict(entry.getValue());
+		}
+	}
+
+	/**
+	 * Sets the maximum total number of kept events, the oldest events are
+	 * evicted if the cache holds more.
+	 *
+	 * @param maxEvents the maximum total number of kept events
+	 */
+	synchronized void setMaxEvents(int maxEvents)
+	{
+		this.maxEvents = Math.max(0, maxEvents);
+		while (size > this.maxEvents)
+			evictOldest();
+	}
+
+	synchronized int getMaxEvents()
+	{ return maxEvents; }
+
+	/**
+	 * @param type the event type
+	 * @return the kept events of the given type and its sub types in posting
+	 *         order
+	 */
+	synchronized List<EventBase> get(Class<?> type)
+	{
+		return get(Collections.<Class<?>>singleton(type));
+	}
+
+	/**
+	 * @param types the event types
+	 * @return the kept events of the given types and their sub types in posting
+	 *         order
+	 */
+	synchronized List<EventBase> get(Collection<Class<?>> types)
+	{
+		if (size == 0)
+			return Collections.emptyList();
+
+		List<Entry> matching = new ArrayList<Entry>();
+		for (Map.Entry<Class<?>, ArrayDeque<Entry>> entry : events.entrySet())
+		{
+			for (Class<?> type : types)
+			{
+				if (type.isAssignableFrom(entry.getKey()))
+				{
+					matching.addAll(entry.getValue());
+					break;
+				}
+			}
+		}
+		matching.sort(Comparator.comparingLong(entry -> entry.sequence));
+
+		List<EventBase> result = new ArrayList<EventBase>(matching.size());
+		for (Entry entry : matching)
+			result.add(entry.event);
+		return result;
+	}
+
+	/**
+	 * Removes the kept events of the given type and its sub types that match the
+	 * given filter.
+	 *
+	 * @param type   the event type
+	 * @param filter the filter or null to remove all events of the type
+	 * @return the number of removed events
+	 */
+	synchronized int remove(Class<?> type, Predicate<Object> filter)
+	{
+		int removed = 0;
+		for (Map.Entry<Class<?>, ArrayDeque<Entry>> entry : events.entrySet())
+		{
+			if (!type.isAssignableFrom(entry.getKey()))
+				continue;
+			for (Iterator<Entry> it = entry.getValue().iterator(); it.hasNext();)
+			{
+				EventBase event = it.next().event;
+				if (filter == null || filter.test(event))
+				{
+					it.remove();
+					removed++;
+				}
+			}
+		}
+		size -= removed;
+		return removed;
+	}
+
+	/**
+	 * @return the number of events that have been evicted
+	 */
+	long getEvictedCount()
+	{ return evicted.sum(); }
+
+	/**
+	 * A kept event and its position in the posting order.
+	 */
+	private static final class Entry
+	{
+		final long sequence;
+		final EventBase event;
+
+		Entry(long sequence, EventBase event)
+		{
+			this.sequence = sequence;
+			this.event = event;
+		}
+	}
+}
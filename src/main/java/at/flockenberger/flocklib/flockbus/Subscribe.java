@@ -10,6 +10,17 @@ import java.lang.annotation.Target;
  * <h1>Subscribe</h1><br>
  * The {@link Subscribe} annotation marks a method of any class to be registered
  * in the {@link FlockBus}.<br>
+ * Subscribers with a higher {@link #priority()} receive an event before
+ * subscribers with a lower one. Once a subscriber calls
+ * {@link EventBase#consume()} the event is not delivered to any further
+ * subscriber.<br>
+ * A method whose only parameter is a {@link java.util.List List} of events is a
+ * batch subscriber. It receives the batches of event types that are coalesced
+ * with {@link FlockBus#coalesce(Class, java.util.function.Function)} and
+ * nothing else.<br>
+ * A subscriber can narrow down the events it receives with a {@link #key()}
+ * and a {@link #filter()}. Both are checked before the subscriber is invoked,
+ * events that do not match never reach the method.
  * 
  * @author Florian Wagner
  *
@@ -17,4 +28,30 @@ import java.lang.annotation.Target;
 @Retention(RUNTIME)
 @Target(METHOD)
 public @interface Subscribe
-{}
+{
+	/**
+	 * @return the priority of the subscriber, higher priorities are invoked first
+	 */
+	int priority() default 0;
+
+	/**
+	 * The routing key of the events this subscriber receives.<br>
+	 * If set, only events whose {@link EventBase#getRoutingKey()} is equal to the
+	 * key are delivered. Keyed subscribers are indexed by their key, posting an
+	 * event only visits the subscribers of its key.
+	 * 
+	 * @return the routing key, an empty string receives events with any key
+	 */
+	String key() default "";
+
+	/**
+	 * The name of the filter that events must pass to reach this
+	 * subscriber.<br>
+	 * The filter has to be registered with
+	 * {@link FlockBus#registerFilter(String, Class, java.util.function.Predicate)}
+	 * before the subscriber is registered.
+	 * 
+	 * @return the filter name, an empty string for no filter
+	 */
+	String filter() default "";
+}
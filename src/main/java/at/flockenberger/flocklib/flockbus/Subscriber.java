@@ -1,7 +1,9 @@
 package at.flockenberger.flocklib.flockbus;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.ref.Reference;
 import java.lang.reflect.Method;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
 import at.flockenberger.flocklib.flockutil.ObjectUtils;
 
@@ -9,14 +11,36 @@ public class Subscriber
 {
 
 	/**
-	 * the target object
+	 * the target object, null if the target is referenced by
+	 * {@link #reference}
 	 */
 	private final Object target;
 
+	/**
+	 * the weak or soft reference to the target object, null if the target is
+	 * strongly referenced
+	 */
+	private final Reference<Object> reference;
+
 	/**
 	 * the method that is to be invoked
 	 */
-	private final Method method;
+	private final SubscriberMethod method;
+
+	/**
+	 * the compiled invoker of {@link #method}
+	 */
+	private final BiConsumer<Object, Object> invoker;
+
+	/**
+	 * the filter events must pass, null if the method has no filter
+	 */
+	private final Predicate<Object> filter;
+
+	/**
+	 * the execution lane of this subscriber, only used by {@link AsyncFlockBus}
+	 */
+	volatile SubscriberLane lane;
 
 	/**
 	 * Constructor.<br>
@@ -24,22 +48,111 @@ public class Subscriber
 	 * 
 	 * @param method the method to be invoked by this subscriber
 	 * @param target the object on which to invoke this method on
+	 * @param filter the filter events must pass or null
 	 */
-	protected Subscriber(Method method, Object target)
+	Subscriber(SubscriberMethod method, Object target, Predicate<Object> filter)
 	{
 		ObjectUtils.isNullThrow(target);
 		ObjectUtils.isNullThrow(method);
 
 		this.target = target;
+		this.reference = null;
 		this.method = method;
+		this.invoker = method.invoker;
+		this.filter = filter;
+	}
+
+	/**
+	 * Constructor.<br>
+	 * Creates a new Subscriber for the given method that references its target
+	 * object only through the given reference.<br>
+	 * 
+	 * @param method    the method to be invoked by this subscriber
+	 * @param reference the reference to the object on which to invoke this method
+	 *                  on
+	 * @param filter    the filter events must pass or null
+	 */
+	Subscriber(SubscriberMethod method, TargetReference reference, Predicate<Object> filter)
+	{
+		ObjectUtils.isNullThrow(reference);
+		ObjectUtils.isNullThrow(method);
+
+		this.target = null;
+		this.reference = reference.reference();
+		this.method = method;
+		this.invoker = method.invoker;
+		this.filter = filter;
+	}
+
+	/**
+	 * @return the method that is invoked by this subscriber
+	 */
+	public Method getMethod()
+	{ return this.method.method; }
+
+	/**
+	 * @return the resolved descriptor of the subscriber method
+	 */
+	SubscriberMethod getSubscriberMethod()
+	{ return this.method; }
+
+	/**
+	 * @return the priority of this subscriber, see {@link Subscribe#priority()}
+	 */
+	public int getPriority()
+	{ return this.method.priority; }
 
+	/**
+	 * @return the routing key of this subscriber or null if it receives events
+	 *         with any key, see {@link Subscribe#key()}
+	 */
+	public String getKey()
+	{ return this.method.key; }
+
+	/**
+	 * Checks the filter of this subscriber.
+	 * 
+	 * @param event the event to check
+	 * @return true if this subscriber has no filter or the event passes it
+	 */
+	boolean filter(Object event)
+	{ return this.filter == null || this.filter.test(event); }
+
+	/**
+	 * Checks whether this subscriber receives the given event, that is whether
+	 * the event matches the type, the routing key and the filter of this
+	 * subscriber.
+	 * 
+	 * @param event the event to check
+	 * @return true if the event is delivered to this subscriber
+	 */
+	boolean accepts(EventBase event)
+	{
+		return this.method.eventType.isInstance(event)
+				&& (this.method.key == null || this.method.key.equals(event.getRoutingKey())) && filter(event);
 	}
 
 	/**
-	 * Tries to invoke the method that is associated with this
-	 * {@link Subscriber}.<br>
+	 * @return the object the method is invoked on or null if a weakly or softly
+	 *         referenced target has been garbage collected
+	 */
+	public Object getTarget()
+	{ return this.reference == null ? this.target : this.reference.get(); }
+
+	/**
+	 * @return the weak or soft reference to the target or null if the target is
+	 *         strongly referenced
+	 */
+	Reference<Object> getReference()
+	{ return this.reference; }
+
+	/**
+	 * Invokes the method that is associated with this {@link Subscriber}.<br>
 	 * The event {@link Object} <code>event</code> must not be null!<br>
-	 * In internal use {@link #method} is guaranteed to not be null!
+	 * In internal use {@link #method} is guaranteed to not be null!<br>
+	 * If the target has been garbage collected nothing happens. Exceptions thrown
+	 * by the method are passed on to the caller, the bus handles them in
+	 * {@link FlockBus#invokeSubscriber(Subscriber, Object)}.
 	 * 
 	 * @param event the event to invoke
 	 */
@@ -47,12 +160,10 @@ public class Subscriber
 	{
 		ObjectUtils.isNullThrow(event);
 
-		try
-		{
-			method.invoke(this.target, event);
-		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e)
-		{
-			e.printStackTrace();
-		}
+		Object target = getTarget();
+		if (target == null)
+			return;
+
+		invoker.accept(target, event);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,83 @@
+package at.flockenberger.flocklib.flockbus;
+
+/**
+ * <h1>SubscriberExceptionEvent</h1><br>
+ * Describes an exception that was thrown by a {@link Subscriber}.<br>
+ * It is passed to the {@link SubscriberExceptionHandler} of the bus. The
+ * default handler posts it to the bus, so it can be handled like any other
+ * event.
+ * 
+ * @author Florian Wagner
+ *
+ */
+public class SubscriberExceptionEvent extends EventBase
+{
+	/**
+	 * the bus that invoked the subscriber
+	 */
+	private final FlockBus bus;
+
+	/**
+	 * the subscriber that threw the exception
+	 */
+	private final Subscriber subscriber;
+
+	/**
+	 * the event or batch of events that was passed to the subscriber
+	 */
+	private final Object event;
+
+	/**
+	 * the thrown exception
+	 */
+	private final Throwable exception;
+
+	/**
+	 * Constructor.<br>
+	 * Creates a new {@link SubscriberExceptionEvent}.
+	 * 
+	 * @param bus        the bus that invoked the subscriber
+	 * @param subscriber the subscriber that threw the exception
+	 * @param event      the event or batch of events that was passed to the
+	 *                   subscriber
+	 * @param exception  the thrown exception
+	 */
+	public SubscriberExceptionEvent(FlockBus bus, Subscriber subscriber, Object event, Throwable exception)
+	{
+		this.bus = bus;
+		this.subscriber = subscriber;
+		this.event = event;
+		this.exception = exception;
+	}
+
+	/**
+	 * @return the bus that invoked the subscriber
+	 */
+	public FlockBus getBus()
+	{ return this.bus; }
+
+	/**
+	 * @return the subscriber that threw the exception
+	 */
+	public Subscriber getSubscriber()
+	{ return this.subscriber; }
+
+	/**
+	 * @return the event or batch of events that was passed to the subscriber
+	 */
+	public Object getEvent()
+	{ return this.event; }
+
+	/**
+	 * @return the thrown exception
+	 */
+	public Throwable getException()
+	{ return this.exception; }
+
+	@Override
+	public String toString()
+	{
+		return "SubscriberExceptionEvent [bus=" + bus.name() + ", subscriber=" + subscriber.getMethod() + ", event="
+				+ event + ", exception=" + exception + "]";
+	}
+}
@@ -0,0 +1,46 @@
+package at.flockenberger.flocklib.flockbus;
+
+/**
+ * <h1>SubscriberExceptionHandler</h1><br>
+ * Handles the exceptions thrown by subscribers of a {@link FlockBus}, see
+ * {@link FlockBus#setExceptionHandler(SubscriberExceptionHandler)}.<br>
+ * The handler runs on the thread that invoked the subscriber, so it should
+ * return quickly even if many subscribers fail at once.
+ * 
+ * @author Florian Wagner
+ *
+ */
+@FunctionalInterface
+public interface SubscriberExceptionHandler
+{
+	/**
+	 * The default handler.<br>
+	 * Delivers the {@link SubscriberExceptionEvent} to the subscribers of the bus
+	 * if anything subscribes to it. The event is delivered right away instead of
+	 * being posted, so it does not wait behind the queue of a buffering bus like
+	 * {@link RingBufferFlockBus}, whose consumer thread is the one that failed.
+	 * Otherwise, or if a subscriber of {@link SubscriberExceptionEvent} failed
+	 * itself, the stack trace is printed, at most once per second and bus.
+	 */
+	public static final SubscriberExceptionHandler DEFAULT = exceptionEvent -> {
+		FlockBus bus = exceptionEvent.getBus();
+		if (!(exceptionEvent.getEvent() instanceof SubscriberExceptionEvent)
+				&& bus.hasSubscribers(SubscriberExceptionEvent.class))
+			bus.deliver(exceptionEvent);
+		else
+			bus.reportException(exceptionEvent.getException());
+	};
+
+	/**
+	 * A handler that ignores all exceptions, they are only counted, see
+	 * {@link FlockBus#getFailureCount()}.
+	 */
+	public static final SubscriberExceptionHandler IGNORE = exceptionEvent -> {};
+
+	/**
+	 * Called after a subscriber threw an exception.
+	 * 
+	 * @param exceptionEvent describes the exception and the failed subscriber
+	 */
+	void handleException(SubscriberExceptionEvent exceptionEvent);
+}
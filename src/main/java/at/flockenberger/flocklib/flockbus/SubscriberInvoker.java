@@ -0,0 +1,200 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
+
+/**
+ * <h1>SubscriberInvoker</h1><br>
+ * Compiles a {@link Subscribe} annotated {@link Method} into a direct invoker
+ * so that delivering an event costs about as much as a virtual call instead of
+ * a reflective {@link Method#invoke(Object, Object...)}.<br>
+ * The invoker takes the target object as first and the event as second
+ * argument. Three strategies are tried in order:
+ * <ol>
+ * <li>a {@link LambdaMetafactory} generated {@link BiConsumer}</li>
+ * <li>a {@link MethodHandle} adapted to <code>(Object, Object)void</code></li>
+ * <li>plain reflection, if the method is not accessible for a lookup</li>
+ * </ol>
+ * Exceptions thrown by the subscriber method are rethrown unwrapped.
+ *
+ * @author Florian Wagner
+ *
+ */
+final class SubscriberInvoker
+{
+
+	/**
+	 * the erased signature of {@link BiConsumer#accept(Object, Object)}
+	 */
+	private static final MethodType ACCEPT_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private SubscriberInvoker()
+	{}
+
+	/**
+	 * Creates a new invoker for the given {@link Method} <code>method</code>.<br>
+	 * This method should only be called once per subscriber method, the returned
+	 * invoker does not hold any reference to a target and can be shared.
+	 *
+	 * @param method the method to compile, must take exactly one parameter
+	 * @return the invoker that calls <code>method</code>
+	 */
+	static BiConsumer<Object, Object> create(Method method)
+	{
+		ObjectUtils.isNullThrow(method);
+
+		MethodHandles.Lookup lookup = lookup(method);
+		MethodHandle handle = unreflect(lookup, method);
+		if (handle == null)
+			return reflective(method);
+
+		if (!Modifier.isStatic(method.getModifiers()))
+		{
+			BiConsumer<Object, Object> lambda = lambda(lookup, handle);
+			if (lambda != null)
+				return lambda;
+		}
+		return bound(adapt(handle, method));
+	}
+
+	/**
+	 * Creates an invoker that always uses the {@link MethodHandle} strategy, even
+	 * if a {@link LambdaMetafactory} invoker could be generated. Used to compare
+	 * the strategies on the same method.
+	 *
+	 * @param method the method to compile, must take exactly one parameter
+	 * @return the invoker that calls <code>method</code>
+	 */
+	static BiConsumer<Object, Object> createMethodHandle(Method method)
+	{
+		ObjectUtils.isNullThrow(method);
+
+		MethodHandle handle = unreflect(lookup(method), method);
+		if (handle == null)
+			return reflective(method);
+		return bound(adapt(handle, method));
+	}
+
+	/**
+	 * @return a lookup with private access to the declaring class of the method
+	 *         or null if access is denied
+	 */
+	private static MethodHandles.Lookup lookup(Method method)
+	{
+		try
+		{
+			return MethodHandles.privateLookupIn(method.getDeclaringClass(), MethodHandles.lookup());
+		} catch (IllegalAccessException | SecurityException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return the handle of the method or null if it can not be looked up
+	 */
+	private static MethodHandle unreflect(MethodHandles.Lookup lookup, Method method)
+	{
+		if (lookup == null)
+			return null;
+		try
+		{
+			return lookup.unreflect(method);
+		} catch (IllegalAccessException | SecurityException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Adapts the handle of a subscriber method to
+	 * <code>(Object, Object)void</code>, a static method ignores the target.
+	 */
+	private static MethodHandle adapt(MethodHandle handle, Method method)
+	{
+		if (Modifier.isStatic(method.getModifiers()))
+			handle = MethodHandles.dropArguments(handle, 0, Object.class);
+		return handle.asType(ACCEPT_TYPE);
+	}
+
+	/**
+	 * Spins a {@link BiConsumer} implementation that calls the given handle
+	 * directly.<br>
+	 * The lookup needs full privilege access to the declaring class, which is not
+	 * the case for classes of other modules, e.g. plugins loaded by their own
+	 * class loader. In that case null is returned.
+	 *
+	 * @param lookup the lookup of the declaring class
+	 * @param handle the handle of the subscriber method
+	 * @return the generated invoker or null
+	 */
+	@SuppressWarnings("unchecked")
+	private static BiConsumer<Object, Object> lambda(MethodHandles.Lookup lookup, MethodHandle handle)
+	{
+		try
+		{
+			CallSite site = LambdaMetafactory.metafactory(lookup, "accept", MethodType.methodType(BiConsumer.class),
+					ACCEPT_TYPE, handle, handle.type().changeReturnType(void.class));
+			return (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+		} catch (Throwable t)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Wraps an already adapted {@link MethodHandle} into an invoker.
+	 *
+	 * @param handle the handle of type <code>(Object, Object)void</code>
+	 * @return the invoker
+	 */
+	private static BiConsumer<Object, Object> bound(MethodHandle handle)
+	{
+		return (target, event) -> {
+			try
+			{
+				handle.invokeExact(target, event);
+			} catch (Throwable t)
+			{
+				throw SubscriberInvoker.<RuntimeException>sneakyThrow(t);
+			}
+		};
+	}
+
+	/**
+	 * The last resort if the method can not be looked up.
+	 *
+	 * @param method the method to invoke
+	 * @return the invoker
+	 */
+	private static BiConsumer<Object, Object> reflective(Method method)
+	{
+		return (target, event) -> {
+			try
+			{
+				method.invoke(target, event);
+			} catch (InvocationTargetException e)
+			{
+				throw SubscriberInvoker.<RuntimeException>sneakyThrow(e.getCause());
+			} catch (IllegalAccessException e)
+			{
+				throw SubscriberInvoker.<RuntimeException>sneakyThrow(e);
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <E extends Throwable> E sneakyThrow(Throwable t) throws E
+	{
+		throw (E) t;
+	}
+}
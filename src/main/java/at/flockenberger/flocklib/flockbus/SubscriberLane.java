@@ -0,0 +1,95 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <h1>SubscriberLane</h1><br>
+ * A serial execution lane of a single {@link Subscriber} on an
+ * {@link AsyncFlockBus}.<br>
+ * Events are queued per subscriber and drained by at most one task at a time,
+ * so a subscriber always sees its events in posting order while different
+ * subscribers run concurrently.
+ *
+ * @author Florian Wagner
+ *
+ */
+final class SubscriberLane implements Runnable
+{
+	/**
+	 * the maximum number of events drained in one run before the lane yields its
+	 * thread to other lanes
+	 */
+	private static final int BATCH_SIZE = 64;
+
+	/**
+	 * the bus this lane belongs to
+	 */
+	private final AsyncFlockBus bus;
+
+	/**
+	 * the subscriber that is invoked by this lane
+	 */
+	private final Subscriber subscriber;
+
+	/**
+	 * the pending events of this lane
+	 */
+	private final Queue<Object> queue;
+
+	/**
+	 * flag that indicates that a drain task has been submitted
+	 */
+	private final AtomicBoolean scheduled;
+
+	SubscriberLane(AsyncFlockBus bus, Subscriber subscriber)
+	{
+		this.bus = bus;
+		this.subscriber = subscriber;
+		this.queue = new ConcurrentLinkedQueue<Object>();
+		this.scheduled = new AtomicBoolean();
+	}
+
+	/**
+	 * Queues the given event and schedules this lane if it is not already
+	 * running.
+	 *
+	 * @param event the event or batch of events to queue
+	 */
+	void enqueue(Object event)
+	{
+		queue.offer(event);
+		schedule();
+	}
+
+	private void schedule()
+	{
+		if (scheduled.compareAndSet(false, true))
+			bus.execute(this);
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			Object event;
+			for (int i = 0; i < BATCH_SIZE && (event = queue.poll()) != null; i++)
+			{
+				try
+				{
+					bus.invokeSubscriber(subscriber, event);
+				} finally
+				{
+					bus.completed();
+				}
+			}
+		} finally
+		{
+			scheduled.set(false);
+			if (!queue.isEmpty())
+				schedule();
+		}
+	}
+}
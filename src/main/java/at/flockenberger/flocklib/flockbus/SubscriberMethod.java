@@ -0,0 +1,161 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * <h1>SubscriberMethod</h1><br>
+ * The resolved description of a {@link Subscribe} annotated method: the event
+ * type it listens to, the method itself and its compiled invoker.<br>
+ * Descriptors do not reference any target object, they are resolved once per
+ * class and cached for the lifetime of that class, so registering another
+ * instance of an already known type does not use reflection at all.
+ *
+ * @author Florian Wagner
+ *
+ */
+final class SubscriberMethod
+{
+	/**
+	 * the resolved subscriber methods of every class that has been registered,
+	 * including the methods declared by its super classes
+	 */
+	private static final ClassValue<SubscriberMethod[]> CACHE = new ClassValue<SubscriberMethod[]>()
+	{
+		@Override
+		protected SubscriberMethod[] computeValue(Class<?> type)
+		{
+			return findSubscriberMethods(type);
+		}
+	};
+
+	/**
+	 * the event type this method listens to
+	 */
+	final Class<?> eventType;
+
+	/**
+	 * the annotated method
+	 */
+	final Method method;
+
+	/**
+	 * the compiled invoker of {@link #method}
+	 */
+	final BiConsumer<Object, Object> invoker;
+
+	/**
+	 * the priority of this method, see {@link Subscribe#priority()}
+	 */
+	final int priority;
+
+	/**
+	 * flag that indicates that this method takes a {@link List} of events, in
+	 * this case {@link #eventType} is the element type of the list
+	 */
+	final boolean batch;
+
+	/**
+	 * the routing key of this method or null, see {@link Subscribe#key()}
+	 */
+	final String key;
+
+	/**
+	 * the name of the filter of this method or null, see
+	 * {@link Subscribe#filter()}
+	 */
+	final String filter;
+
+	private SubscriberMethod(Method method)
+	{
+		Subscribe subscribe = method.getAnnotation(Subscribe.class);
+		Class<?> elementType = batchElementType(method);
+		this.batch = elementType != null;
+		this.eventType = batch ? elementType : method.getParameterTypes()[0];
+		this.method = method;
+		this.invoker = SubscriberInvoker.create(method);
+		this.priority = subscribe.priority();
+		this.key = subscribe.key().isEmpty() ? null : subscribe.key();
+		this.filter = subscribe.filter().isEmpty() ? null : subscribe.filter();
+		if (batch && (key != null || filter != null))
+			throw new IllegalArgumentException("Batch subscribers can not have a key or filter: " + method);
+	}
+
+	/**
+	 * Resolves the element type of a batch subscriber, a method whose only
+	 * parameter is a {@link List} of an {@link EventBase} type, e.g.
+	 * <code>List&lt;MyEvent&gt;</code> or <code>List&lt;? extends MyEvent&gt;</code>.
+	 *
+	 * @param method the method to check
+	 * @return the element type or null if <code>method</code> is no batch
+	 *         subscriber
+	 */
+	private static Class<?> batchElementType(Method method)
+	{
+		if (method.getParameterTypes()[0] != List.class)
+			return null;
+
+		Type parameter = method.getGenericParameterTypes()[0];
+		if (!(parameter instanceof ParameterizedType))
+			return null;
+
+		Type element = ((ParameterizedType) parameter).getActualTypeArguments()[0];
+		if (element instanceof WildcardType)
+			element = ((WildcardType) element).getUpperBounds()[0];
+		if (element instanceof Class && EventBase.class.isAssignableFrom((Class<?>) element))
+			return (Class<?>) element;
+		return null;
+	}
+
+	/**
+	 * Retrieves the subscriber methods of the given {@link Class}
+	 * <code>type</code>.<br>
+	 * The result is cached, the returned array must not be modified.
+	 *
+	 * @param type the class to get the subscriber methods from
+	 * @return the subscriber methods of <code>type</code> and its super classes
+	 * @throws IllegalArgumentException if an annotated method does not have
+	 *                                  exactly one parameter or is a batch
+	 *                                  subscriber with a key or filter
+	 */
+	static SubscriberMethod[] forClass(Class<?> type)
+	{
+		return CACHE.get(type);
+	}
+
+	/**
+	 * Walks the class hierarchy of <code>type</code> and collects every
+	 * {@link Subscribe} annotated method.<br>
+	 * If an annotated method is overridden by another annotated method only the
+	 * most specific one is kept, the invoker dispatches virtually anyway.
+	 *
+	 * @param type the class to scan
+	 * @return the found subscriber methods
+	 */
+	private static SubscriberMethod[] findSubscriberMethods(Class<?> type)
+	{
+		List<SubscriberMethod> methods = new ArrayList<SubscriberMethod>();
+		Set<String> signatures = new HashSet<String>();
+		for (Class<?> cls = type; cls != null && cls != Object.class; cls = cls.getSuperclass())
+		{
+			for (Method method : cls.getDeclaredMethods())
+			{
+				if (!method.isAnnotationPresent(Subscribe.class))
+					continue;
+				if (method.getParameterCount() != 1)
+					throw new IllegalArgumentException("Method annotated with @Subscribe must have exactly one parameter: "
+							+ method);
+				if (signatures.add(method.getName() + '(' + method.getParameterTypes()[0].getName()))
+					methods.add(new SubscriberMethod(method));
+			}
+		}
+		return methods.toArray(new SubscriberMethod[methods.size()]);
+	}
+}
@@ -1,14 +1,17 @@
 package at.flockenberger.flocklib.flockbus;
 
 import java.io.Serializable;
-import java.lang.reflect.Method;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
 
 import at.flockenberger.flocklib.flockutil.ObjectUtils;
 import at.flockenberger.flocklib.flockutil.ReflectUtils;
@@ -20,70 +23,305 @@ class SubscriberRegistry implements Serializable {
 	 */
 	private static final long serialVersionUID = 4378030437139323482L;
 	/**
-	 * all registered subscribers
+	 * all registered subscribers.<br>
+	 * The arrays are never modified, every change replaces the array of the
+	 * event type atomically.
 	 */
-	private Map<Class<?>, CopyOnWriteArraySet<Subscriber>> subscribers;
+	private Map<Class<?>, Subscriber[]> subscribers;
+
+	/**
+	 * the flattened subscribers of every event class that has been posted,
+	 * including the subscribers of all its super types.<br>
+	 * Cleared on every change of {@link #subscribers}.
+	 */
+	private Map<Class<?>, DispatchPlan> dispatchPlans;
+
+	/**
+	 * all registered batch subscribers, keyed by their element type.<br>
+	 * Batch subscribers take a {@link List} of events and only receive the
+	 * batches of coalesced event types.
+	 */
+	private Map<Class<?>, Subscriber[]> batchSubscribers;
+
+	/**
+	 * the flattened batch subscribers of every coalesced event type that has
+	 * been flushed.<br>
+	 * Cleared on every change of {@link #batchSubscribers}.
+	 */
+	private Map<Class<?>, Subscriber[]> batchPlans;
+
+	/**
+	 * the plan of event classes without any subscriber
+	 */
+	private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+	/**
+	 * orders subscribers by descending priority
+	 */
+	private static final Comparator<Subscriber> BY_PRIORITY = Comparator.comparingInt(Subscriber::getPriority).reversed();
+
+	/**
+	 * the queue of weakly or softly registered objects that have been garbage
+	 * collected
+	 */
+	private transient ReferenceQueue<Object> collected;
+
+	/**
+	 * the named filters subscribers can refer to, see
+	 * {@link Subscribe#filter()}
+	 */
+	private transient Map<String, Predicate<Object>> filters;
 
 	protected SubscriberRegistry() {
-		this.subscribers = new ConcurrentHashMap<Class<?>, CopyOnWriteArraySet<Subscriber>>();
+		this.collected = new ReferenceQueue<Object>();
+		this.filters = new ConcurrentHashMap<String, Predicate<Object>>();
+		this.subscribers = new ConcurrentHashMap<Class<?>, Subscriber[]>();
+		this.dispatchPlans = new ConcurrentHashMap<Class<?>, DispatchPlan>();
+		this.batchSubscribers = new ConcurrentHashMap<Class<?>, Subscriber[]>();
+		this.batchPlans = new ConcurrentHashMap<Class<?>, Subscriber[]>();
 	}
 
-	protected <T extends Object> void register(T object) {
+	/**
+	 * Registers every subscriber method of the given object.
+	 * 
+	 * @param object the object to register
+	 * @param mode   how the object is referenced
+	 * @return the created subscribers
+	 */
+	protected <T extends Object> List<Subscriber> register(T object, ReferenceMode mode) {
+		expungeCollected();
+		TargetReference reference = mode == ReferenceMode.STRONG ? null
+				: TargetReference.create(mode, object, collected);
+		List<Subscriber> created = new ArrayList<Subscriber>();
+		for (SubscriberMethod method : SubscriberMethod.forClass(object.getClass()))
+			if (method.filter != null && !filters.containsKey(method.filter))
+				throw new IllegalArgumentException("No filter named '" + method.filter + "' is registered: " + method.method);
 		doRegisterStuff(object, (type, method) -> {
-			if (subscribers.containsKey(type))
-				subscribers.get(type).add(new Subscriber(method, object));
-			else {
-				CopyOnWriteArraySet<Subscriber> temp = new CopyOnWriteArraySet<Subscriber>();
-				temp.add(new Subscriber(method, object));
-				subscribers.put(type, temp);
-			}
+			Predicate<Object> filter = method.filter == null ? null : filters.get(method.filter);
+			Subscriber subscriber = reference == null ? new Subscriber(method, object, filter)
+					: new Subscriber(method, reference, filter);
+			created.add(subscriber);
+			subscribersOf(method).compute(type, (key, current) -> {
+				if (current == null)
+					return new Subscriber[] { subscriber };
+				Subscriber[] updated = Arrays.copyOf(current, current.length + 1);
+				updated[current.length] = subscriber;
+				return updated;
+			});
 		});
-
+		dispatchPlans.clear();
+		batchPlans.clear();
+		return created;
 	}
 
 	protected <T extends Object> void unregister(T object) {
+		expungeCollected();
 		doRegisterStuff(object, (type, method) -> {
-			if (subscribers.containsKey(type)) {
-				Set<Subscriber> subscriberSet = subscribers.get(type);
-				subscriberSet.remove(new Subscriber(method, object));
+			subscribersOf(method).computeIfPresent(type, (key, current) -> {
+				for (int i = 0; i < current.length; i++)
+					if (current[i].getTarget() == object && current[i].getSubscriberMethod() == method)
+						return without(current, i);
+				return current;
+			});
+		});
+		dispatchPlans.clear();
+		batchPlans.clear();
+	}
 
-				if (subscriberSet.isEmpty())
-					subscribers.remove(type);
+	/**
+	 * Registers a named filter, see {@link Subscribe#filter()}.<br>
+	 * Subscribers that are already registered keep the filter they were
+	 * registered with.
+	 * 
+	 * @param name   the name of the filter
+	 * @param filter the filter
+	 */
+	protected void registerFilter(String name, Predicate<Object> filter) {
+		filters.put(name, filter);
+	}
+
+	/**
+	 * Removes the subscribers of all weakly or softly registered objects that
+	 * have been garbage collected.<br>
+	 * Only the subscribers of the collected objects are visited, the cost is zero
+	 * if nothing has been collected.
+	 */
+	protected void expungeCollected() {
+		Reference<?> reference = collected.poll();
+		if (reference == null)
+			return;
+
+		for (; reference != null; reference = collected.poll()) {
+			Reference<?> cleared = reference;
+			for (SubscriberMethod method : SubscriberMethod.forClass(((TargetReference) cleared).targetClass())) {
+				subscribersOf(method).computeIfPresent(method.eventType, (key, current) -> {
+					for (int i = 0; i < current.length; i++)
+						if (current[i].getReference() == cleared && current[i].getSubscriberMethod() == method)
+							return without(current, i);
+					return current;
+				});
 			}
-		});
+		}
+		dispatchPlans.clear();
+		batchPlans.clear();
+	}
+
+	/**
+	 * @return a copy of <code>current</code> without the element at
+	 *         <code>index</code> or null if the copy would be empty
+	 */
+	private static Subscriber[] without(Subscriber[] current, int index) {
+		if (current.length == 1)
+			return null;
+		Subscriber[] updated = new Subscriber[current.length - 1];
+		System.arraycopy(current, 0, updated, 0, index);
+		System.arraycopy(current, index + 1, updated, index, updated.length - index);
+		return updated;
+	}
+
+	private Map<Class<?>, Subscriber[]> subscribersOf(SubscriberMethod method) {
+		return method.batch ? batchSubscribers : subscribers;
 	}
 
 	private <T extends Object> void doRegisterStuff(T object, RegistryHandle rh) {
 		ObjectUtils.isNullThrow(object);
-		List<Class<?>> classes = ReflectUtils.getSuperClasses(object);
-		for (Class<?> cls : classes)
-			for (Method method : findSubscriptionMethods(cls))
-				rh.handle(method.getParameterTypes()[0], method);
-
+		for (SubscriberMethod method : SubscriberMethod.forClass(object.getClass()))
+			rh.handle(method.eventType, method);
 	}
 
-	protected <T extends EventBase> void postEvent(T event) {
+	/**
+	 * Dispatches the given event to every subscriber of its class and all of its
+	 * super types whose key and filter match the event.
+	 * 
+	 * @param event the event to post
+	 * @param bus   the bus that dispatches the event
+	 * @return false if the event has not been dispatched to any subscriber
+	 */
+	protected <T extends EventBase> boolean postEvent(T event, FlockBus bus) {
 		ObjectUtils.isNullThrow(event, "Given event must not be null!");
-		Class<?> clazz = event.getClass();
-		if (subscribers.containsKey(clazz))
-			subscribers.get(clazz).forEach(subscriber -> subscriber.invoke(event));
+		expungeCollected();
+		Subscriber[] plan = dispatchPlanOf(event.getClass()).select(event.getRoutingKey());
+		boolean delivered = false;
+		for (Subscriber subscriber : plan) {
+			if (event.consumed)
+				break;
+			if (!subscriber.filter(event))
+				continue;
+			bus.dispatch(subscriber, event);
+			delivered = true;
+		}
+		return delivered;
+	}
+
+	/**
+	 * @param eventClass the class of an event
+	 * @return true if events of the given class have at least one subscriber,
+	 *         regardless of its key and filter
+	 */
+	protected boolean hasSubscribers(Class<?> eventClass) {
+		DispatchPlan plan = dispatchPlanOf(eventClass);
+		return plan.unkeyed.length != 0 || !plan.keyed.isEmpty();
+	}
+
+	private DispatchPlan dispatchPlanOf(Class<?> eventClass) {
+		DispatchPlan plan = dispatchPlans.get(eventClass);
+		if (plan == null)
+			plan = dispatchPlans.computeIfAbsent(eventClass,
+					type -> new DispatchPlan(createDispatchPlan(subscribers, type)));
+		return plan;
 	}
 
-	private List<Method> findSubscriptionMethods(Class<?> type) {
-		List<Method> subscribeMethods = Arrays.stream(type.getDeclaredMethods())
-				.filter(method -> method.isAnnotationPresent(Subscribe.class)).collect(Collectors.toList());
-		checkSubscriberMethods(subscribeMethods);
-		return subscribeMethods;
+	/**
+	 * Delivers a batch of coalesced events to every batch subscriber of the
+	 * given type or one of its super types.
+	 * 
+	 * @param type  the coalesced event type
+	 * @param batch the events to deliver
+	 * @param bus   the bus that dispatches the batch
+	 */
+	protected void postBatch(Class<?> type, List<? extends EventBase> batch, FlockBus bus) {
+		Subscriber[] plan = batchPlans.get(type);
+		if (plan == null)
+			plan = batchPlans.computeIfAbsent(type, key -> createDispatchPlan(batchSubscribers, key));
+		for (Subscriber subscriber : plan)
+			bus.dispatch(subscriber, batch);
+	}
+
+	/**
+	 * Collects the subscribers of the given event class and all of its super
+	 * types into one array, sorted by descending priority.<br>
+	 * Subscribers with the same priority keep their order: more specific event
+	 * types first, then in order of registration.
+	 * 
+	 * @param registered the registered subscribers to collect from
+	 * @param eventClass the concrete class of a posted event
+	 * @return the subscribers that receive events of <code>eventClass</code>
+	 */
+	private static Subscriber[] createDispatchPlan(Map<Class<?>, Subscriber[]> registered, Class<?> eventClass) {
+		List<Subscriber> plan = new ArrayList<Subscriber>();
+		for (Class<?> type : ReflectUtils.getTypeHierarchy(eventClass)) {
+			Subscriber[] typeSubscribers = registered.get(type);
+			if (typeSubscribers != null)
+				plan.addAll(Arrays.asList(typeSubscribers));
+		}
+		if (plan.isEmpty())
+			return NO_SUBSCRIBERS;
+		plan.sort(BY_PRIORITY);
+		return plan.toArray(NO_SUBSCRIBERS);
 	}
 
-	private void checkSubscriberMethods(List<Method> subscribeMethods) {
-		boolean hasMoreThanOneParameter = subscribeMethods.stream().anyMatch(method -> method.getParameterCount() != 1);
-		if (hasMoreThanOneParameter) {
-			throw new IllegalArgumentException("Method annotated with @Susbscribe has more than one parameter!");
+	/**
+	 * The subscribers of one event class, indexed by their routing key.
+	 */
+	private static final class DispatchPlan {
+		/**
+		 * the subscribers without a key
+		 */
+		final Subscriber[] unkeyed;
+
+		/**
+		 * the subscribers of every key merged with {@link #unkeyed}, in priority
+		 * order
+		 */
+		final Map<String, Subscriber[]> keyed;
+
+		DispatchPlan(Subscriber[] all) {
+			List<Subscriber> unkeyed = new ArrayList<Subscriber>();
+			Map<String, List<Subscriber>> keyed = new HashMap<String, List<Subscriber>>();
+			for (Subscriber subscriber : all) {
+				if (subscriber.getKey() == null)
+					unkeyed.add(subscriber);
+				else
+					keyed.putIfAbsent(subscriber.getKey(), new ArrayList<Subscriber>());
+			}
+			for (Map.Entry<String, List<Subscriber>> entry : keyed.entrySet())
+				for (Subscriber subscriber : all)
+					if (subscriber.getKey() == null || subscriber.getKey().equals(entry.getKey()))
+						entry.getValue().add(subscriber);
+
+			this.unkeyed = unkeyed.toArray(NO_SUBSCRIBERS);
+			if (keyed.isEmpty()) {
+				this.keyed = Collections.emptyMap();
+			} else {
+				this.keyed = new HashMap<String, Subscriber[]>();
+				for (Map.Entry<String, List<Subscriber>> entry : keyed.entrySet())
+					this.keyed.put(entry.getKey(), entry.getValue().toArray(NO_SUBSCRIBERS));
+			}
+		}
+
+		/**
+		 * @param key the routing key of a posted event
+		 * @return the subscribers that receive events with the given key
+		 */
+		Subscriber[] select(String key) {
+			if (key == null)
+				return unkeyed;
+			Subscriber[] plan = keyed.get(key);
+			return plan == null ? unkeyed : plan;
 		}
 	}
 
 	static interface RegistryHandle {
-		public void handle(Class<?> type, Method m);
+		public void handle(Class<?> type, SubscriberMethod m);
 	}
 }
@@ -0,0 +1,83 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+/**
+ * <h1>TargetReference</h1><br>
+ * The reference of a weakly or softly registered object.<br>
+ * All subscribers of one registration share the same reference, it remembers
+ * the class of the object so that its subscribers can be found again once the
+ * reference has been enqueued.
+ *
+ * @author Florian Wagner
+ *
+ */
+interface TargetReference
+{
+	/**
+	 * @return the class of the referenced object
+	 */
+	Class<?> targetClass();
+
+	/**
+	 * @return this object as {@link Reference}
+	 */
+	Reference<Object> reference();
+
+	/**
+	 * Creates a new reference to the given object.
+	 *
+	 * @param mode   either {@link ReferenceMode#WEAK} or
+	 *               {@link ReferenceMode#SOFT}
+	 * @param target the object to reference
+	 * @param queue  the queue the reference is enqueued in once it is cleared
+	 * @return the new reference
+	 */
+	static TargetReference create(ReferenceMode mode, Object target, ReferenceQueue<Object> queue)
+	{
+		if (mode == ReferenceMode.SOFT)
+			return new Soft(target, queue);
+		return new Weak(target, queue);
+	}
+
+	static final class Weak extends WeakReference<Object> implements TargetReference
+	{
+		private final Class<?> targetClass;
+
+		Weak(Object target, ReferenceQueue<Object> queue)
+		{
+			super(target, queue);
+			this.targetClass = target.getClass();
+		}
+
+		@Override
+		public Class<?> targetClass()
+		{ return targetClass; }
+
+		@Override
+		public Reference<Object> reference()
+		{ return this; }
+	}
+
+	static final class Soft extends SoftReference<Object> implements TargetReference
+	{
+		private final Class<?> targetClass;
+
+		Soft(Object target, ReferenceQueue<Object> queue)
+		{
+			super(target, queue);
+			this.targetClass = target.getClass();
+		}
+
+		@Override
+		public Class<?> targetClass()
+		{ return targetClass; }
+
+		@Override
+		public Reference<Object> reference()
+		{ return this; }
+	}
+}
@@ -0,0 +1,61 @@
+package at.flockenberger.flocklib.flockbus;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h1>WaitStrategy</h1><br>
+ * The WaitStrategy defines how the threads of a {@link RingBufferFlockBus} wait
+ * for new events or for free slots in the ring.<br>
+ * The strategies trade latency against CPU usage, from {@link #BUSY_SPIN} with
+ * the lowest latency to {@link #PARK} with the lowest CPU usage.
+ * 
+ * @author Florian Wagner
+ *
+ */
+public enum WaitStrategy
+{
+	/**
+	 * Spins on the CPU without giving up the thread.<br>
+	 * Only use this strategy if there are more cores than busy threads.
+	 */
+	BUSY_SPIN
+	{
+		@Override
+		void idle()
+		{
+			Thread.onSpinWait();
+		}
+	},
+	/**
+	 * Yields the thread to other threads while waiting.
+	 */
+	YIELD
+	{
+		@Override
+		void idle()
+		{
+			Thread.yield();
+		}
+	},
+	/**
+	 * Parks the thread for a short time while waiting.
+	 */
+	PARK
+	{
+		@Override
+		void idle()
+		{
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	};
+
+	/**
+	 * the time a thread is parked by {@link #PARK}
+	 */
+	private static final long PARK_NANOS = 50_000L;
+
+	/**
+	 * Called repeatedly while a thread waits.
+	 */
+	abstract void idle();
+}
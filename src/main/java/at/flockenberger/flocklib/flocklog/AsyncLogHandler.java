@@ -0,0 +1,404 @@
+package at.flockenberger.flocklib.flocklog;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
+
+/**
+ * <h1>AsyncLogHandler</h1><br>
+ * The AsyncLogHandler moves the work of another {@link LogHandler} off the
+ * logging thread.<br>
+ * Logged entries are put on a bounded lock-free queue and handed to the wrapped
+ * handler by a background thread in batches. The wrapped handler is flushed
+ * once per flush interval instead of after every entry, so the logging thread
+ * never waits for formatting or I/O. What happens when the queue is full is
+ * decided by the {@link OverflowPolicy}.<br>
+ * A wrapped {@link LogConsoleHandler} stops flushing after every entry, the
+ * AsyncLogHandler takes care of flushing it.<br>
+ * Parameterized messages are still formatted on the background thread.
+ * Arguments other than strings, boxed primitives and enums are converted to
+ * strings before the entry is queued, so later changes to them do not show up
+ * in the message.
+ *
+ * @see LogHandler
+ * @author Florian Wagner
+ *
+ */
+public class AsyncLogHandler extends LogHandler
+{
+	/**
+	 * the default capacity of the queue
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/**
+	 * the maximum number of entries handled before the queue is checked for a
+	 * pending flush or close
+	 */
+	private static final int BATCH_SIZE = 256;
+
+	/**
+	 * the time a waiting logging thread parks before trying again
+	 */
+	private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	/**
+	 * counts the created handlers to name their threads
+	 */
+	private static final AtomicInteger COUNT = new AtomicInteger();
+
+	/**
+	 * the handler that does the actual logging
+	 */
+	private final LogHandler delegate;
+
+	/**
+	 * the queued entries
+	 */
+	private final LogEntryQueue queue;
+
+	/**
+	 * what to do when the queue is full
+	 */
+	private final OverflowPolicy policy;
+
+	/**
+	 * the thread that drains the queue
+	 */
+	private final Thread drainThread;
+
+	/**
+	 * the number of entries that have been queued
+	 */
+	private final AtomicLong queued;
+
+	/**
+	 * the number of dropped entries
+	 */
+	private final LongAdder dropped;
+
+	/**
+	 * the number of queued entries that have been dropped to make space for
+	 * newer ones
+	 */
+	private final AtomicLong evicted;
+
+	/**
+	 * the number of entries that have been handed to the delegate, only written
+	 * by the drain thread
+	 */
+	private volatile long handled;
+
+	/**
+	 * the most verbose level that is kept with
+	 * {@link OverflowPolicy#DROP_BELOW_LEVEL}, more verbose entries are dropped
+	 */
+	private volatile LogLevel dropLevel = LogLevel.SYSTEM;
+
+	/**
+	 * the time between two flushes of the delegate
+	 */
+	private volatile long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/**
+	 * flag that indicates that the drain thread is parked
+	 */
+	private volatile boolean sleeping;
+
+	/**
+	 * flag that indicates that {@link #close()} has been called
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new {@link AsyncLogHandler} with a queue of
+	 * {@value #DEFAULT_CAPACITY} entries that blocks when it is full.
+	 *
+	 * @param delegate the handler that does the actual logging
+	 */
+	public AsyncLogHandler(LogHandler delegate)
+	{
+		this(delegate, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+	}
+
+	/**
+	 * Creates a new {@link AsyncLogHandler}.
+	 *
+	 * @param delegate the handler that does the actual logging
+	 * @param capacity the capacity of the queue, rounded up to a power of two
+	 * @param policy   what to do when the queue is full
+	 */
+	public AsyncLogHandler(LogHandler delegate, int capacity, OverflowPolicy policy)
+	{
+		ObjectUtils.isNullThrow(delegate, "Delegate handler must not be null!");
+		ObjectUtils.isNullThrow(policy, "Overflow policy must not be null!");
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+
+		this.delegate = delegate;
+		this.queue = new LogEntryQueue(capacity);
+		this.policy = policy;
+		this.queued = new AtomicLong();
+		this.dropped = new LongAdder();
+		this.evicted = new AtomicLong();
+		if (delegate instanceof LogConsoleHandler)
+			((LogConsoleHandler) delegate).setAutoFlush(false);
+
+		this.drainThread = new Thread(this::drain, "FlockLog-Async-" + COUNT.incrementAndGet());
+		this.drainThread.setDaemon(true);
+		this.drainThread.start();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void log(LogEntry entry)
+	{
+		if (entry == null || closed || !shouldLog(entry))
+			return;
+
+		// the entry is formatted on the drain thread, the arguments may have
+		// changed by then
+		entry.snapshotArguments();
+		while (!queue.offer(entry))
+		{
+			if (closed)
+			{
+				dropped.increment();
+				return;
+			}
+			switch (policy)
+			{
+			case DROP_OLDEST:
+				if (queue.poll() != null)
+				{
+					evicted.incrementAndGet();
+					dropped.increment();
+				}
+				break;
+			case DROP_BELOW_LEVEL:
+				if (entry.level.getIntLevel() > dropLevel.getIntLevel())
+				{
+					dropped.increment();
+					return;
+				}
+				wakeUp();
+				LockSupport.parkNanos(BLOCK_PARK_NANOS);
+				break;
+			default:
+				wakeUp();
+				LockSupport.parkNanos(BLOCK_PARK_NANOS);
+				break;
+			}
+		}
+		queued.incrementAndGet();
+		if (sleeping)
+			wakeUp();
+	}
+
+	private void wakeUp()
+	{
+		LockSupport.unpark(drainThread);
+	}
+
+	/**
+	 * The loop of the drain thread.
+	 */
+	private void drain()
+	{
+		long lastFlush = System.nanoTime();
+		boolean dirty = false;
+		while (true)
+		{
+			int count = 0;
+			LogEntry entry;
+			while (count < BATCH_SIZE && (entry = queue.poll()) != null)
+			{
+				handle(entry);
+				count++;
+			}
+			if (count > 0)
+			{
+				handled += count;
+				dirty = true;
+			}
+
+			long now = System.nanoTime();
+			if (dirty && now - lastFlush >= flushIntervalNanos)
+			{
+				flushDelegate();
+				lastFlush = now;
+				dirty = false;
+			}
+
+			if (count == 0)
+			{
+				if (closed && queue.size() == 0)
+					break;
+				sleeping = true;
+				if (queue.size() == 0)
+					LockSupport.parkNanos(dirty ? Math.max(0, flushIntervalNanos - (now - lastFlush))
+							: flushIntervalNanos);
+				sleeping = false;
+			}
+		}
+		flushDelegate();
+	}
+
+	private void handle(LogEntry entry)
+	{
+		try
+		{
+			delegate.log(entry);
+		} catch (Exception e)
+		{
+			reportError("Failed to log an entry with " + delegate.getClass().getSimpleName(), e);
+		}
+	}
+
+	private void flushDelegate()
+	{
+		try
+		{
+			delegate.flush();
+		} catch (Exception e)
+		{
+			reportError("Failed to flush " + delegate.getClass().getSimpleName(), e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * The wrapped handler drops entries below its own level, so the stricter of
+	 * both levels is returned. Loggers skip such entries before they are even
+	 * created instead of queueing them for nothing.
+	 */
+	@Override
+	public LogLevel getLevel()
+	{
+		LogLevel own = super.getLevel();
+		LogLevel wrapped = delegate.getLevel();
+		return wrapped.getIntLevel() < own.getIntLevel() ? wrapped : own;
+	}
+
+	/**
+	 * {@inheritDoc}<br>
+	 * The wrapped handler is asked as well, the location has to be captured on
+	 * the logging thread.
+	 */
+	@Override
+	public boolean requiresLocation()
+	{
+		return super.requiresLocation() || delegate.requiresLocation();
+	}
+
+	/**
+	 * Waits until all entries that have been logged so far are handed to the
+	 * wrapped handler, then flushes it.
+	 */
+	@Override
+	public void flush()
+	{
+		long target = queued.get();
+		while (handled + evicted.get() < target && drainThread.isAlive())
+		{
+			wakeUp();
+			LockSupport.parkNanos(BLOCK_PARK_NANOS);
+		}
+		flushDelegate();
+	}
+
+	/**
+	 * Stops accepting entries, hands all queued entries to the wrapped handler
+	 * and closes it.
+	 */
+	@Override
+	public void close()
+	{
+		if (closed)
+			return;
+		closed = true;
+		wakeUp();
+		try
+		{
+			drainThread.join();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		delegate.close();
+	}
+
+	/**
+	 * Sets the time between two flushes of the wrapped handler.
+	 *
+	 * @param interval the flush interval
+	 * @param unit     the unit of <code>interval</code>
+	 */
+	public void setFlushInterval(long interval, TimeUnit unit)
+	{
+		ObjectUtils.isNullThrow(unit);
+		this.flushIntervalNanos = Math.max(1, unit.toNanos(interval));
+		wakeUp();
+	}
+
+	/**
+	 * Sets the level used by {@link OverflowPolicy#DROP_BELOW_LEVEL}.<br>
+	 * While the queue is full, entries that are more verbose than the drop level,
+	 * that is whose {@link LogLevel#getIntLevel()} is higher, are dropped. Entries
+	 * of the drop level and less verbose ones wait for space. The default is
+	 * {@link LogLevel#SYSTEM}, so {@link LogLevel#DEBUG} and {@link LogLevel#ALL}
+	 * entries are dropped and everything else is kept.
+	 *
+	 * @param dropLevel the most verbose level that is kept
+	 */
+	public void setDropLevel(LogLevel dropLevel)
+	{
+		if (ObjectUtils.isNull(dropLevel))
+			return;
+		this.dropLevel = dropLevel;
+	}
+
+	/**
+	 * @return the most verbose level that is kept by
+	 *         {@link OverflowPolicy#DROP_BELOW_LEVEL}
+	 */
+	public LogLevel getDropLevel()
+	{ return this.dropLevel; }
+
+	/**
+	 * @return the overflow policy of this handler
+	 */
+	public OverflowPolicy getOverflowPolicy()
+	{ return this.policy; }
+
+	/**
+	 * @return the wrapped handler
+	 */
+	public LogHandler getDelegate()
+	{ return this.delegate; }
+
+	/**
+	 * @return the number of entries that are waiting in the queue
+	 */
+	public int getQueueSize()
+	{ return queue.size(); }
+
+	/**
+	 * @return the number of entries the queue can hold
+	 */
+	public int getCapacity()
+	{ return queue.capacity(); }
+
+	/**
+	 * @return the number of entries that have been dropped because the queue was
+	 *         full
+	 */
+	public long getDroppedCount()
+	{ return dropped.sum(); }
+}
@@ -1,16 +1,19 @@
 package at.flockenberger.flocklib.flocklog;
 
-import java.util.HashMap;
+import java.lang.StackWalker.Option;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-import at.flockenberger.flocklib.flockutil.ReflectUtils;
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
 
 /**
  * <h1>FlockLogManager</h1><br>
  * The FlockLogManager class is responsible for handling all {@link FlockLogger}
  * objects that might have been created.<br>
  * All {@link FlockLogger}s are cached so there will always be only one logger
- * with the same name!
+ * with the same name!<br>
+ * The cache can be used from any number of threads, looking up a cached logger
+ * does not take a lock.
  * 
  * @author Florian Wagner
  *
@@ -20,7 +23,7 @@ public class FlockLogManager
 	/**
 	 * global FlockLogManager instance
 	 */
-	private static FlockLogManager instance;
+	private static final FlockLogManager instance = new FlockLogManager();
 
 	/**
 	 * default global logger
@@ -30,18 +33,27 @@ public class FlockLogManager
 	/**
 	 * cache for logging objects.
 	 */
-	private Map<String, FlockLogger> logCache;
+	private final Map<String, FlockLogger> logCache;
 
 	/**
-	 * the depth of the calling class
+	 * the stack walker used to find the class that asks for a logger
 	 */
-	private static final int CALLER_DEPTH = 4;
+	private static final StackWalker WALKER = StackWalker.getInstance(Option.RETAIN_CLASS_REFERENCE);
 
-	static
+	/**
+	 * the logger of every class that asked for one by class
+	 */
+	private static final ClassValue<FlockLogger> CLASS_LOGGERS = new ClassValue<FlockLogger>()
 	{
-		if (instance == null)
-			instance = new FlockLogManager();
+		@Override
+		protected FlockLogger computeValue(Class<?> type)
+		{
+			return getLogger(type.getName());
+		}
+	};
 
+	static
+	{
 		// add global logger
 		FlockLogger fl = new FlockLogger(GLOBAL);
 		LogConsoleHandler handler = new LogConsoleHandler();
@@ -56,7 +68,7 @@ public class FlockLogManager
 
 	private FlockLogManager()
 	{
-		logCache = new HashMap<String, FlockLogger>();
+		logCache = new ConcurrentHashMap<String, FlockLogger>();
 	}
 
 	/**
@@ -72,11 +84,28 @@ public class FlockLogManager
 	 * class does not create multiple instances of different {@link FlockLogger}s
 	 * with the same name! <br>
 	 * This method is guaranteed to never return null!<br>
+	 * Only the frame of the caller is inspected, still loggers should be kept in
+	 * a static field instead of being looked up on every call.
 	 * 
 	 * @return a {@link FlockLogger} object with the name of the calling class
 	 */
 	public static FlockLogger getLogger()
-	{ return getLogger(ReflectUtils.getCallingClassName(CALLER_DEPTH)); }
+	{ return getLogger(WALKER.getCallerClass()); }
+
+	/**
+	 * Gets the {@link FlockLogger} named after the given class.<br>
+	 * The logger is cached with the class, looking it up again only costs a
+	 * field read.<br>
+	 * This method is guaranteed to never return null!<br>
+	 * 
+	 * @param type the class to get the logger of
+	 * @return a {@link FlockLogger} object with the name of the given class
+	 */
+	public static FlockLogger getLogger(Class<?> type)
+	{
+		ObjectUtils.isNullThrow(type, "Logger class must not be null!");
+		return CLASS_LOGGERS.get(type);
+	}
 
 	/**
 	 * 
@@ -91,16 +120,10 @@ public class FlockLogManager
 	 */
 	public static FlockLogger getLogger(String name)
 	{
-		FlockLogger logger = null;
-		if (instance.logCache.containsKey(name))
-			logger = instance.logCache.get(name);
-		else
-		{
-			FlockLogger fl = new FlockLogger(name);
-			instance.logCache.put(name, fl);
-			logger = fl;
-		}
-
+		ObjectUtils.isNullThrow(name, "Logger name must not be null!");
+		FlockLogger logger = instance.logCache.get(name);
+		if (logger == null)
+			logger = instance.logCache.computeIfAbsent(name, FlockLogger::new);
 		return logger;
 	}
 
@@ -1,8 +1,12 @@
 package at.flockenberger.flocklib.flocklog;
 
-import java.util.ArrayList;
+import java.lang.StackWalker.Option;
+import java.lang.StackWalker.StackFrame;
 import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
 
 /**
  * <h1>FlockLogger</h1><br>
@@ -12,15 +16,27 @@ import java.util.List;
  */
 public class FlockLogger
 {
+	/**
+	 * the stack walker used to capture the source location of a log call
+	 */
+	private static final StackWalker WALKER = StackWalker.getInstance(Option.RETAIN_CLASS_REFERENCE);
+
 	/**
 	 * the name of this logger
 	 */
 	private String name;
 
 	/**
-	 * all handlers that are assigned to this logger
+	 * the logger without any handler
 	 */
-	private List<LogHandler> handlers;
+	private static final LogHandler[] NO_HANDLERS = new LogHandler[0];
+
+	/**
+	 * all handlers that are assigned to this logger.<br>
+	 * The array is never modified, adding or removing a handler replaces it, so
+	 * logging iterates it without a lock.
+	 */
+	private volatile LogHandler[] handlers;
 
 	/**
 	 * the default console handler
@@ -37,12 +53,38 @@ public class FlockLogger
 	 */
 	private boolean suppressWarning = false;
 
+	/**
+	 * limits how often the same message is logged, null if not limited
+	 */
+	private volatile LogRateLimiter rateLimiter;
+
+	/**
+	 * flag to capture the source location of every log call
+	 */
+	private volatile boolean captureLocation = false;
+
+	/**
+	 * the handler configuration version {@link #effectiveLevel} and
+	 * {@link #locationLevels} have been computed for, -1 if they are outdated
+	 */
+	private volatile int configVersion = -1;
+
+	/**
+	 * the highest int level any handler logs, -1 if there is no handler
+	 */
+	private volatile int effectiveLevel;
+
+	/**
+	 * bit mask of the levels that need the source location, indexed by
+	 * {@link LogLevel#ordinal()}
+	 */
+	private volatile int locationLevels;
+
 	protected FlockLogger(String name)
 	{
-		this.handlers = new ArrayList<LogHandler>();
 		this.name = name;
 		this.defaultHandler = new LogConsoleHandler();
-		this.handlers.add(defaultHandler);
+		this.handlers = new LogHandler[] { defaultHandler };
 	}
 
 	protected void printHeader()
@@ -88,13 +130,53 @@ public class FlockLogger
 		this.suppressWarning = false;
 	}
 
+	/**
+	 * Enables or disables the capture of the source location of every log
+	 * call.<br>
+	 * If disabled the location is still captured if a handler that logs the
+	 * entry requires it, see {@link LogHandler#requiresLocation()}.
+	 * 
+	 * @param captureLocation true to always capture the source location
+	 */
+	public void setCaptureLocation(boolean captureLocation)
+	{
+		this.captureLocation = captureLocation;
+	}
+
+	/**
+	 * @return true if the source location of every log call is captured
+	 */
+	public boolean isCaptureLocation()
+	{ return this.captureLocation; }
+
+	/**
+	 * Sets the {@link LogRateLimiter} that limits how often the same message is
+	 * logged.<br>
+	 * A limiter can be shared by several loggers, their messages are still
+	 * limited separately.
+	 * 
+	 * @param rateLimiter the rate limiter or null to log every message
+	 */
+	public void setRateLimiter(LogRateLimiter rateLimiter)
+	{
+		LogRateLimiter previous = this.rateLimiter;
+		this.rateLimiter = rateLimiter;
+		if (previous != null && previous != rateLimiter)
+			previous.flush(this);
+	}
+
+	/**
+	 * @return the rate limiter of this logger or null
+	 */
+	public LogRateLimiter getRateLimiter()
+	{ return this.rateLimiter; }
+
 	/**
 	 * Removes the default {@link LogConsoleHandler} from this logger.
 	 */
 	public void removeDefaultConsoleHandler()
 	{
-		if (handlers.contains(defaultHandler))
-			handlers.remove(defaultHandler);
+		removeHandler(defaultHandler);
 	}
 
 	/**
@@ -102,21 +184,56 @@ public class FlockLogger
 	 * 
 	 * @param hndl the handler to add
 	 */
-	public void addHandler(LogHandler hndl)
+	public synchronized void addHandler(LogHandler hndl)
 	{
-		this.handlers.add(hndl);
+		ObjectUtils.isNullThrow(hndl, "Handler must not be null!");
+		LogHandler[] current = this.handlers;
+		LogHandler[] updated = Arrays.copyOf(current, current.length + 1);
+		updated[current.length] = hndl;
+		this.handlers = updated;
+		this.configVersion = -1;
 	}
 
 	/**
 	 * Removes the given {@link LogHandler} from the Cardinal Logger.
 	 * 
-	 * @param hndl the logger to remove
+	 * @param hndl the handler to remove
 	 */
+	public synchronized void removeHandler(LogHandler hndl)
+	{
+		LogHandler[] current = this.handlers;
+		for (int i = 0; i < current.length; i++)
+		{
+			if (current[i].equals(hndl))
+			{
+				LogHandler[] updated = current.length == 1 ? NO_HANDLERS : new LogHandler[current.length - 1];
+				System.arraycopy(current, 0, updated, 0, i);
+				System.arraycopy(current, i + 1, updated, i, updated.length - i);
+				this.handlers = updated;
+				this.configVersion = -1;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Removes the given {@link LogHandler} from the Cardinal Logger.
+	 * 
+	 * @param hndl the handler to remove
+	 * @deprecated misspelled, use {@link #removeHandler(LogHandler)} instead
+	 */
+	@Deprecated
 	public void removeHandlre(LogHandler hndl)
 	{
-		this.handlers.remove(hndl);
+		removeHandler(hndl);
 	}
 
+	/**
+	 * @return a copy of the handlers that are assigned to this logger
+	 */
+	public LogHandler[] getHandlers()
+	{ return this.handlers.clone(); }
+
 	/**
 	 * Logs an {@link Exception}.
 	 * 
@@ -158,7 +275,8 @@ public class FlockLogger
 	 */
 	public void log(LogLevel lvl, String msg)
 	{
-		_log(new LogEntry(name, System.currentTimeMillis(), msg, lvl));
+		if (shouldLog(lvl, msg))
+			_log(createEntry(lvl, msg, null));
 	}
 
 	/**
@@ -169,7 +287,91 @@ public class FlockLogger
 	 */
 	public void log(LogLevel lvl, Object msg)
 	{
-		log(lvl, msg.toString());
+		if (isLoggable(lvl))
+			log(lvl, msg.toString());
+	}
+
+	/**
+	 * Logs the message of the given {@link Supplier} to the given
+	 * {@link LogLevel}.<br>
+	 * The supplier is only called if the level is logged by any handler. The
+	 * method has a name of its own, so that <code>log(lvl, null)</code> still
+	 * resolves to {@link #log(LogLevel, String)}.
+	 * 
+	 * @param lvl the {@link LogLevel} to assign this message to
+	 * @param msg the supplier of the message to log
+	 */
+	public void logLazy(LogLevel lvl, Supplier<String> msg)
+	{
+		if (isLoggable(lvl))
+			log(lvl, msg.get());
+	}
+
+	/**
+	 * Logs a parameterized message to the given {@link LogLevel}.<br>
+	 * Every <code>{}</code> in <code>format</code> is replaced by the next
+	 * argument. The message is only built if a handler needs it, until then the
+	 * entry only holds the format and the arguments.
+	 * 
+	 * @param lvl    the {@link LogLevel} to assign this message to
+	 * @param format the message format
+	 * @param arg    the argument
+	 */
+	public void log(LogLevel lvl, String format, Object arg)
+	{
+		if (shouldLog(lvl, format))
+			_log(createEntry(lvl, format, new Object[] { arg }));
+	}
+
+	/**
+	 * Logs a parameterized message to the given {@link LogLevel}, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param lvl    the {@link LogLevel} to assign this message to
+	 * @param format the message format
+	 * @param arg1   the first argument
+	 * @param arg2   the second argument
+	 */
+	public void log(LogLevel lvl, String format, Object arg1, Object arg2)
+	{
+		if (shouldLog(lvl, format))
+			_log(createEntry(lvl, format, new Object[] { arg1, arg2 }));
+	}
+
+	/**
+	 * Logs a parameterized message to the given {@link LogLevel}, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param lvl    the {@link LogLevel} to assign this message to
+	 * @param format the message format
+	 * @param args   the arguments
+	 */
+	public void log(LogLevel lvl, String format, Object... args)
+	{
+		if (shouldLog(lvl, format))
+			_log(createEntry(lvl, format, args));
+	}
+
+	/**
+	 * Logs a message with structured fields to the given {@link LogLevel}.<br>
+	 * The fields are kept apart from the message, structured formatters like
+	 * the {@link LogJsonFormatter} write them as properties of their own. The
+	 * array is copied, so it can be reused by the caller.
+	 * 
+	 * @param lvl    the {@link LogLevel} to assign this message to
+	 * @param msg    the message to log
+	 * @param fields the fields of the message
+	 */
+	public void logWith(LogLevel lvl, String msg, LogField... fields)
+	{
+		if (shouldLog(lvl, msg))
+		{
+			LogEntry entry = createEntry(lvl, msg, null);
+			// the caller may reuse the array, the entry may outlive the call
+			if (fields != null && fields.length != 0)
+				entry.fields = fields.clone();
+			_log(entry);
+		}
 	}
 
 	/**
@@ -180,7 +382,8 @@ public class FlockLogger
 	 */
 	public void log(LogLevel lvl, int msg)
 	{
-		log(lvl, String.valueOf(msg));
+		if (isLoggable(lvl))
+			log(lvl, String.valueOf(msg));
 	}
 
 	/**
@@ -191,7 +394,8 @@ public class FlockLogger
 	 */
 	public void log(LogLevel lvl, boolean msg)
 	{
-		log(lvl, String.valueOf(msg));
+		if (isLoggable(lvl))
+			log(lvl, String.valueOf(msg));
 	}
 
 	/**
@@ -202,7 +406,8 @@ public class FlockLogger
 	 */
 	public void log(LogLevel lvl, double msg)
 	{
-		log(lvl, String.valueOf(msg));
+		if (isLoggable(lvl))
+			log(lvl, String.valueOf(msg));
 	}
 
 	/**
@@ -213,7 +418,8 @@ public class FlockLogger
 	 */
 	public void log(LogLevel lvl, float msg)
 	{
-		log(lvl, String.valueOf(msg));
+		if (isLoggable(lvl))
+			log(lvl, String.valueOf(msg));
 	}
 
 	/**
@@ -224,7 +430,8 @@ public class FlockLogger
 	 */
 	public void log(LogLevel lvl, long msg)
 	{
-		log(lvl, String.valueOf(msg));
+		if (isLoggable(lvl))
+			log(lvl, String.valueOf(msg));
 	}
 
 	/**
@@ -235,7 +442,8 @@ public class FlockLogger
 	 */
 	public void log(LogLevel lvl, char msg)
 	{
-		log(lvl, String.valueOf(msg));
+		if (isLoggable(lvl))
+			log(lvl, String.valueOf(msg));
 	}
 
 	/**
@@ -246,7 +454,8 @@ public class FlockLogger
 	 */
 	public void log(LogLevel lvl, byte msg)
 	{
-		log(lvl, String.valueOf(msg));
+		if (isLoggable(lvl))
+			log(lvl, String.valueOf(msg));
 	}
 
 	/**
@@ -336,7 +545,68 @@ public class FlockLogger
 	 */
 	public void info(Object msg)
 	{
-		log(LogLevel.INFO, msg.toString());
+		log(LogLevel.INFO, msg);
+	}
+
+	/**
+	 * Logs the message of the given {@link Supplier} with the
+	 * {@link LogLevel#INFO} level.<br>
+	 * The supplier is only called if the message is logged.
+	 * 
+	 * @param msg the supplier of the message to log
+	 */
+	public void infoLazy(Supplier<String> msg)
+	{
+		logLazy(LogLevel.INFO, msg);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#INFO} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param arg    the argument
+	 */
+	public void info(String format, Object arg)
+	{
+		log(LogLevel.INFO, format, arg);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#INFO} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param arg1   the first argument
+	 * @param arg2   the second argument
+	 */
+	public void info(String format, Object arg1, Object arg2)
+	{
+		log(LogLevel.INFO, format, arg1, arg2);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#INFO} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param args   the arguments
+	 */
+	public void info(String format, Object... args)
+	{
+		log(LogLevel.INFO, format, args);
+	}
+
+	/**
+	 * Logs a message with structured fields with the {@link LogLevel#INFO} level,
+	 * see {@link #logWith(LogLevel, String, LogField...)}.
+	 * 
+	 * @param msg    the message to log
+	 * @param fields the fields of the message
+	 */
+	public void infoWith(String msg, LogField... fields)
+	{
+		logWith(LogLevel.INFO, msg, fields);
 	}
 
 	/**
@@ -442,7 +712,73 @@ public class FlockLogger
 	{
 		if (!suppressWarning)
 
-			log(LogLevel.WARN, msg.toString());
+			log(LogLevel.WARN, msg);
+	}
+
+	/**
+	 * Logs the message of the given {@link Supplier} with the
+	 * {@link LogLevel#WARN} level.<br>
+	 * The supplier is only called if the message is logged.
+	 * 
+	 * @param msg the supplier of the message to log
+	 */
+	public void warnLazy(Supplier<String> msg)
+	{
+		if (!suppressWarning)
+			logLazy(LogLevel.WARN, msg);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#WARN} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param arg    the argument
+	 */
+	public void warn(String format, Object arg)
+	{
+		if (!suppressWarning)
+			log(LogLevel.WARN, format, arg);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#WARN} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param arg1   the first argument
+	 * @param arg2   the second argument
+	 */
+	public void warn(String format, Object arg1, Object arg2)
+	{
+		if (!suppressWarning)
+			log(LogLevel.WARN, format, arg1, arg2);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#WARN} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param args   the arguments
+	 */
+	public void warn(String format, Object... args)
+	{
+		if (!suppressWarning)
+			log(LogLevel.WARN, format, args);
+	}
+
+	/**
+	 * Logs a message with structured fields with the {@link LogLevel#WARN} level,
+	 * see {@link #logWith(LogLevel, String, LogField...)}.
+	 * 
+	 * @param msg    the message to log
+	 * @param fields the fields of the message
+	 */
+	public void warnWith(String msg, LogField... fields)
+	{
+		if (!suppressWarning)
+			logWith(LogLevel.WARN, msg, fields);
 	}
 
 	/**
@@ -535,6 +871,67 @@ public class FlockLogger
 		log(LogLevel.ERROR, msg);
 	}
 
+	/**
+	 * Logs the message of the given {@link Supplier} with the
+	 * {@link LogLevel#ERROR} level.<br>
+	 * The supplier is only called if the message is logged.
+	 * 
+	 * @param msg the supplier of the message to log
+	 */
+	public void errorLazy(Supplier<String> msg)
+	{
+		logLazy(LogLevel.ERROR, msg);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#ERROR} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param arg    the argument
+	 */
+	public void error(String format, Object arg)
+	{
+		log(LogLevel.ERROR, format, arg);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#ERROR} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param arg1   the first argument
+	 * @param arg2   the second argument
+	 */
+	public void error(String format, Object arg1, Object arg2)
+	{
+		log(LogLevel.ERROR, format, arg1, arg2);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#ERROR} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param args   the arguments
+	 */
+	public void error(String format, Object... args)
+	{
+		log(LogLevel.ERROR, format, args);
+	}
+
+	/**
+	 * Logs a message with structured fields with the {@link LogLevel#ERROR} level,
+	 * see {@link #logWith(LogLevel, String, LogField...)}.
+	 * 
+	 * @param msg    the message to log
+	 * @param fields the fields of the message
+	 */
+	public void errorWith(String msg, LogField... fields)
+	{
+		logWith(LogLevel.ERROR, msg, fields);
+	}
+
 	/**
 	 * Logs a message with the {@link LogLevel#DEBUG} level.
 	 * 
@@ -634,6 +1031,198 @@ public class FlockLogger
 			log(LogLevel.DEBUG, msg);
 	}
 
+	/**
+	 * Logs the message of the given {@link Supplier} with the
+	 * {@link LogLevel#DEBUG} level.<br>
+	 * The supplier is only called if the message is logged.
+	 * 
+	 * @param msg the supplier of the message to log
+	 */
+	public void debugLazy(Supplier<String> msg)
+	{
+		if (debug)
+			logLazy(LogLevel.DEBUG, msg);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#DEBUG} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param arg    the argument
+	 */
+	public void debug(String format, Object arg)
+	{
+		if (debug)
+			log(LogLevel.DEBUG, format, arg);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#DEBUG} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param arg1   the first argument
+	 * @param arg2   the second argument
+	 */
+	public void debug(String format, Object arg1, Object arg2)
+	{
+		if (debug)
+			log(LogLevel.DEBUG, format, arg1, arg2);
+	}
+
+	/**
+	 * Logs a parameterized message with the {@link LogLevel#DEBUG} level, see
+	 * {@link #log(LogLevel, String, Object)}.
+	 * 
+	 * @param format the message format
+	 * @param args   the arguments
+	 */
+	public void debug(String format, Object... args)
+	{
+		if (debug)
+			log(LogLevel.DEBUG, format, args);
+	}
+
+	/**
+	 * Logs a message with structured fields with the {@link LogLevel#DEBUG} level,
+	 * see {@link #logWith(LogLevel, String, LogField...)}.
+	 * 
+	 * @param msg    the message to log
+	 * @param fields the fields of the message
+	 */
+	public void debugWith(String msg, LogField... fields)
+	{
+		if (debug)
+			logWith(LogLevel.DEBUG, msg, fields);
+	}
+
+	/**
+	 * Checks whether a message with the given level would be logged.<br>
+	 * Besides the levels of the handlers this also respects
+	 * {@link #enableDebugOutput()} and {@link #suppressWarnings()}, so it can be
+	 * used to guard expensive log statements.
+	 * 
+	 * @param lvl the level to check
+	 * @return true if a message with the given level is logged
+	 */
+	public boolean isEnabled(LogLevel lvl)
+	{
+		if (lvl == LogLevel.DEBUG && !debug)
+			return false;
+		if (lvl == LogLevel.WARN && suppressWarning)
+			return false;
+		return isLoggable(lvl);
+	}
+
+	/**
+	 * Checks the given level against the effective level of all handlers.
+	 * 
+	 * @param lvl the level to check
+	 * @return true if at least one handler logs the level
+	 */
+	private boolean isLoggable(LogLevel lvl)
+	{
+		if (configVersion != LogHandler.getConfigVersion())
+			refresh();
+		return lvl.getIntLevel() <= effectiveLevel;
+	}
+
+	/**
+	 * Checks the level of a message and takes a permit from the rate limiter.
+	 * 
+	 * @param lvl the level of the message
+	 * @param key the format or the text of the message
+	 * @return true if the message is to be logged
+	 */
+	private boolean shouldLog(LogLevel lvl, String key)
+	{
+		if (!isLoggable(lvl))
+			return false;
+		LogRateLimiter limiter = this.rateLimiter;
+		return limiter == null || limiter.acquire(this, lvl, key);
+	}
+
+	/**
+	 * Logs the summary of the entries of a message the rate limiter dropped.<br>
+	 * The summary may be logged by any thread, e.g. the timer of the rate
+	 * limiter, so it carries neither the {@link LogContext} nor the source
+	 * location of that thread.
+	 * 
+	 * @param lvl   the level of the message
+	 * @param key   the format or the text of the message
+	 * @param count the number of dropped entries
+	 * @param nanos the time since the first entry was dropped
+	 */
+	void logSuppressed(LogLevel lvl, String key, long count, long nanos)
+	{
+		StringBuilder sb = new StringBuilder(key.length() + 48);
+		sb.append('"').append(key).append("\" repeated ");
+		String digits = Long.toString(count);
+		for (int i = 0; i < digits.length(); i++)
+		{
+			if (i > 0 && (digits.length() - i) % 3 == 0)
+				sb.append(',');
+			sb.append(digits.charAt(i));
+		}
+		sb.append(count == 1 ? " time in " : " times in ");
+		long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+		if (millis < 1000)
+			sb.append(millis).append("ms");
+		else
+			sb.append(millis / 1000).append('s');
+		_log(new LogEntry(name, System.currentTimeMillis(), sb.toString(), null, lvl));
+	}
+
+	/**
+	 * Recomputes the effective level and the levels that need the source
+	 * location from the current handlers.<br>
+	 * Synchronized with adding and removing handlers, so a change of the handlers
+	 * cannot be overwritten by a concurrent refresh.
+	 */
+	private synchronized void refresh()
+	{
+		int version = LogHandler.getConfigVersion();
+		int level = -1;
+		int location = 0;
+		for (LogHandler h : handlers)
+		{
+			int handlerLevel = h.getLevel().getIntLevel();
+			level = Math.max(level, handlerLevel);
+			if (h.requiresLocation())
+				for (LogLevel lvl : LogLevel.values())
+					if (lvl.getIntLevel() <= handlerLevel)
+						location |= 1 << lvl.ordinal();
+		}
+		this.effectiveLevel = level;
+		this.locationLevels = location;
+		this.configVersion = version;
+	}
+
+	/**
+	 * Creates the entry of a log call that passed the level check.
+	 */
+	private LogEntry createEntry(LogLevel lvl, String msg, Object[] args)
+	{
+		LogEntry entry = new LogEntry(name, System.currentTimeMillis(), msg, args, lvl);
+		entry.context = LogContext.snapshot();
+		if (captureLocation || (locationLevels & (1 << lvl.ordinal())) != 0)
+			entry.setSource(findCaller());
+		return entry;
+	}
+
+	/**
+	 * Walks the stack once and returns the first frame outside of the logger.
+	 * 
+	 * @return the frame of the log call or null if none was found
+	 */
+	private static StackFrame findCaller()
+	{
+		return WALKER.walk(frames -> frames
+				.filter(frame -> !FlockLogger.class.isAssignableFrom(frame.getDeclaringClass())).findFirst()
+				.orElse(null));
+	}
+
 	// caller method to all handlers
 	private void _log(LogEntry entry)
 	{
@@ -646,6 +1235,9 @@ public class FlockLogger
 	 */
 	public void free()
 	{
+		LogRateLimiter limiter = this.rateLimiter;
+		if (limiter != null)
+			limiter.flush(this);
 		for (LogHandler h : handlers)
 			h.close();
 	}
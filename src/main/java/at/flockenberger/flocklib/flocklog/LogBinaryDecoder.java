@@ -0,0 +1,252 @@
+package at.flockenberger.flocklib.flocklog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
+
+/**
+ * <h1>LogBinaryDecoder</h1><br>
+ * Reads the entries written by a {@link LogBinaryHandler} back into
+ * {@link LogEntry} objects.<br>
+ * Run it as a program to render a binary log in the layout of the
+ * {@link LogDefaultFormatter}:
+ *
+ * <pre>
+ * java at.flockenberger.flocklib.flocklog.LogBinaryDecoder [file]
+ * </pre>
+ *
+ * Without a file the log is read from {@link System#in}.
+ *
+ * @see LogBinaryHandler
+ * @author Florian Wagner
+ *
+ */
+public final class LogBinaryDecoder implements AutoCloseable
+{
+	private static final LogLevel[] LEVELS = LogLevel.values();
+
+	private final InputStream input;
+
+	/**
+	 * the string table, indexed by id
+	 */
+	private final List<String> strings;
+
+	/**
+	 * the time stamp of the previous entry
+	 */
+	private long lastTime;
+
+	/**
+	 * Creates a new {@link LogBinaryDecoder} and reads the header of the log.
+	 *
+	 * @param in the stream to read the log from
+	 * @throws IOException if the stream does not start with a binary log header
+	 */
+	public LogBinaryDecoder(InputStream in) throws IOException
+	{
+		ObjectUtils.isNullThrow(in, "Input stream must not be null!");
+		this.input = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 65536);
+		this.strings = new ArrayList<String>();
+		this.strings.add(null);
+
+		for (byte magic : LogBinaryHandler.MAGIC)
+			if (input.read() != magic)
+				throw new IOException("Not a binary log");
+		int version = input.read();
+		if (version < 1 || version > LogBinaryHandler.VERSION)
+			throw new IOException("Unsupported binary log version: " + version);
+	}
+
+	/**
+	 * Reads the next entry.
+	 *
+	 * @return the next entry or null at the end of the log
+	 * @throws IOException if the log cannot be read or is corrupt
+	 */
+	public LogEntry next() throws IOException
+	{
+		int tag;
+		while ((tag = input.read()) == LogBinaryHandler.TAG_STRING)
+		{
+			int id = (int) readVarLong();
+			if (id != strings.size())
+				throw new IOException("Corrupt binary log: string " + id + " out of order");
+			strings.add(readString());
+		}
+		if (tag < 0)
+			return null;
+		if (tag != LogBinaryHandler.TAG_ENTRY)
+			throw new IOException("Corrupt binary log: unknown tag " + tag);
+
+		int flags = readByte();
+		int ordinal = flags & LogBinaryHandler.FLAG_LEVEL_MASK;
+		if (ordinal >= LEVELS.length)
+			throw new IOException("Corrupt binary log: unknown level " + ordinal);
+		String logger = readReference();
+		lastTime += unZigZag(readVarLong());
+
+		LogEntry entry;
+		if ((flags & LogBinaryHandler.FLAG_PARAMETERIZED) != 0)
+		{
+			String format = readReference();
+			Object[] args = new Object[(int) readVarLong()];
+			for (int i = 0; i < args.length; i++)
+				args[i] = readArgument();
+			entry = new LogEntry(logger, lastTime, format, args, LEVELS[ordinal]);
+		} else
+		{
+			entry = new LogEntry(logger, lastTime, readString(), LEVELS[ordinal]);
+		}
+
+		if ((flags & LogBinaryHandler.FLAG_SOURCE) != 0)
+			entry.setSource(readReference(), readReference(), (int) readVarLong());
+
+		if ((flags & LogBinaryHandler.FLAG_CONTEXT) != 0)
+		{
+			String[] context = new String[2 * (int) readVarLong()];
+			for (int i = 0; i < context.length; i += 2)
+			{
+				context[i] = readReference();
+				context[i + 1] = readString();
+			}
+			entry.context = context;
+		}
+
+		if ((flags & LogBinaryHandler.FLAG_FIELDS) != 0)
+		{
+			LogField[] fields = new LogField[(int) readVarLong()];
+			for (int i = 0; i < fields.length; i++)
+				fields[i] = LogField.of(readReference(), readArgument());
+			entry.fields = fields;
+		}
+		return entry;
+	}
+
+	private Object readArgument() throws IOException
+	{
+		int type = readByte();
+		switch (type)
+		{
+		case LogBinaryHandler.ARG_NULL:
+			return null;
+		case LogBinaryHandler.ARG_INT:
+			return (int) unZigZag(readVarLong());
+		case LogBinaryHandler.ARG_LONG:
+			return unZigZag(readVarLong());
+		case LogBinaryHandler.ARG_BOOLEAN:
+			return readByte() != 0;
+		case LogBinaryHandler.ARG_CHAR:
+			return (char) readVarLong();
+		case LogBinaryHandler.ARG_FLOAT:
+			return Float.intBitsToFloat((int) readFixed(4));
+		case LogBinaryHandler.ARG_DOUBLE:
+			return Double.longBitsToDouble(readFixed(8));
+		case LogBinaryHandler.ARG_STRING:
+			return readString();
+		default:
+			throw new IOException("Corrupt binary log: unknown argument type " + type);
+		}
+	}
+
+	/**
+	 * Reads the id of an interned string or an inline string.
+	 */
+	private String readReference() throws IOException
+	{
+		int id = (int) readVarLong();
+		if (id == LogBinaryHandler.INLINE)
+			return readString();
+		if (id >= strings.size())
+			throw new IOException("Corrupt binary log: undefined string " + id);
+		return strings.get(id);
+	}
+
+	private String readString() throws IOException
+	{
+		int length = (int) readVarLong();
+		byte[] bytes = input.readNBytes(length);
+		if (bytes.length != length)
+			throw new EOFException();
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private long readVarLong() throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Corrupt binary log: malformed varint");
+	}
+
+	private long readFixed(int bytes) throws IOException
+	{
+		long value = 0;
+		for (int i = 0; i < bytes; i++)
+			value = (value << 8) | readByte();
+		return value;
+	}
+
+	private int readByte() throws IOException
+	{
+		int b = input.read();
+		if (b < 0)
+			throw new EOFException();
+		return b;
+	}
+
+	private static long unZigZag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		input.close();
+	}
+
+	/**
+	 * Renders a binary log to {@link System#out}.
+	 *
+	 * @param args the file to read, {@link System#in} if none is given
+	 * @throws IOException if the log cannot be read
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		InputStream in = args.length > 0 ? Files.newInputStream(Paths.get(args[0])) : System.in;
+		LogDefaultFormatter formatter = new LogDefaultFormatter();
+		formatter.setPrintLocation(true);
+		StringBuilder sb = new StringBuilder(512);
+		try (LogBinaryDecoder decoder = new LogBinaryDecoder(in);
+				Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 65536))
+		{
+			LogEntry entry;
+			while ((entry = decoder.next()) != null)
+			{
+				sb.setLength(0);
+				formatter.formatLogEntry(entry, sb);
+				out.append(sb);
+			}
+		}
+	}
+}
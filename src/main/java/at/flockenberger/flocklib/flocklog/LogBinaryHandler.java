@@ -0,0 +1,476 @@
+package at.flockenberger.flocklib.flocklog;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
+
+/**
+ * <h1>LogBinaryHandler</h1><br>
+ * The LogBinaryHandler writes log entries in a compact binary form instead of
+ * text, the {@link LogBinaryDecoder} renders them back into the layout of the
+ * {@link LogDefaultFormatter}.<br>
+ * The formatter of this handler is not used. Messages are not formatted at
+ * all: the format of a parameterized message is written once and referenced by
+ * an id afterwards, its arguments are written separately. Logger names and
+ * source locations are written once as well. Time stamps are written as the
+ * variable length difference to the previous entry.<br>
+ * <br>
+ * The stream starts with the bytes <code>FLB</code> and the format version,
+ * followed by records. Every record starts with a tag:
+ * <ul>
+ * <li>{@link #TAG_STRING}: a varint id and a string, defines an entry of the
+ * string table</li>
+ * <li>{@link #TAG_ENTRY}: a flag byte with the level ordinal in the lower three
+ * bits, the logger name id, the zigzag varint time stamp delta, then either the
+ * format id and the arguments or an inline message, then the ids of the source
+ * class and method and the line number if the location was captured, then the
+ * {@link LogContext} as a varint count and pairs of a key id and an inline
+ * value if {@link #FLAG_CONTEXT} is set, then the {@link LogField}s as a
+ * varint count and pairs of a key id and an argument if {@link #FLAG_FIELDS}
+ * is set</li>
+ * </ul>
+ * Strings are written as a varint length followed by UTF-8 bytes.<br>
+ * Only complete records are written to the stream. If writing fails, the
+ * record that was being written is dropped and the error is reported, the
+ * records before it are written with the next entry.
+ *
+ * @see LogBinaryDecoder
+ * @author Florian Wagner
+ *
+ */
+public class LogBinaryHandler extends LogHandler
+{
+	/**
+	 * the bytes every binary log starts with
+	 */
+	static final byte[] MAGIC = { 'F', 'L', 'B' };
+
+	/**
+	 * the version of the format
+	 */
+	static final int VERSION = 2;
+
+	static final int TAG_STRING = 1;
+	static final int TAG_ENTRY = 2;
+
+	static final int FLAG_LEVEL_MASK = 0x07;
+	static final int FLAG_PARAMETERIZED = 0x08;
+	static final int FLAG_SOURCE = 0x10;
+	static final int FLAG_CONTEXT = 0x20;
+	static final int FLAG_FIELDS = 0x40;
+
+	static final int ARG_NULL = 0;
+	static final int ARG_INT = 1;
+	static final int ARG_LONG = 2;
+	static final int ARG_BOOLEAN = 3;
+	static final int ARG_CHAR = 4;
+	static final int ARG_FLOAT = 5;
+	static final int ARG_DOUBLE = 6;
+	static final int ARG_STRING = 7;
+
+	/**
+	 * the maximum number of strings in the string table, further strings are
+	 * written inline
+	 */
+	static final int MAX_STRINGS = 1 << 16;
+
+	/**
+	 * the id of a string that is written inline
+	 */
+	static final int INLINE = 0;
+
+	/**
+	 * the size of the buffer, it is written to the stream once it is full
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * the ids of the strings that have been written, ids start at 1
+	 */
+	private final Map<String, Integer> strings;
+
+	private OutputStream output;
+	private byte[] buffer;
+	private int position;
+
+	/**
+	 * the end of the last complete record in the buffer
+	 */
+	private int committed;
+
+	/**
+	 * the time stamp of the previous entry
+	 */
+	private long lastTime;
+
+	/**
+	 * Creates a new {@link LogBinaryHandler} that writes to the given stream.
+	 *
+	 * @param out the stream to write to
+	 */
+	public LogBinaryHandler(OutputStream out)
+	{
+		ObjectUtils.isNullThrow(out, "Output stream must not be null!");
+		this.output = out;
+		this.strings = new HashMap<String, Integer>();
+		this.buffer = new byte[BUFFER_SIZE];
+		System.arraycopy(MAGIC, 0, buffer, 0, MAGIC.length);
+		position = MAGIC.length;
+		buffer[position++] = VERSION;
+		committed = position;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void log(LogEntry entry)
+	{
+		if (output == null || entry == null || !shouldLog(entry))
+			return;
+
+		try
+		{
+			String format = entry.getFormat();
+			Object[] args = entry.getArguments();
+			boolean parameterized = args != null;
+			boolean source = entry.hasSource();
+			String[] context = entry.context;
+			LogField[] fields = entry.fields;
+			String[] texts = parameterized ? argumentTexts(args) : null;
+			Object[] values = fields != null ? fieldValues(fields) : null;
+			String[] valueTexts = values != null ? argumentTexts(values) : null;
+
+			int logger = intern(entry.loggerName);
+			int template = parameterized ? intern(format) : INLINE;
+			int sourceClass = source ? intern(entry.sourceClassName) : INLINE;
+			int sourceMethod = source ? intern(entry.sourceMethodName) : INLINE;
+			int[] contextKeys = context != null ? internKeys(context, 2) : null;
+			int[] fieldKeys = fields != null ? internFieldKeys(fields) : null;
+
+			ensure(32);
+			buffer[position++] = TAG_ENTRY;
+			buffer[position++] = (byte) (entry.level.ordinal() | (parameterized ? FLAG_PARAMETERIZED : 0)
+					| (source ? FLAG_SOURCE : 0) | (context != null ? FLAG_CONTEXT : 0)
+					| (fields != null ? FLAG_FIELDS : 0));
+			writeReference(logger, entry.loggerName);
+			writeVarLong(zigZag(entry.timeStamp - lastTime));
+
+			if (parameterized)
+			{
+				writeReference(template, format);
+				ensure(5);
+				writeVarLong(args.length);
+				for (int i = 0; i < args.length; i++)
+					writeArgument(args[i], texts == null ? null : texts[i]);
+			} else
+			{
+				writeString(String.valueOf(entry.getMessage()));
+			}
+
+			if (source)
+			{
+				writeReference(sourceClass, entry.sourceClassName);
+				writeReference(sourceMethod, entry.sourceMethodName);
+				ensure(5);
+				writeVarLong(entry.sourceLineNumber);
+			}
+
+			if (context != null)
+			{
+				ensure(5);
+				writeVarLong(contextKeys.length);
+				for (int i = 0; i < contextKeys.length; i++)
+				{
+					writeReference(contextKeys[i], context[2 * i]);
+					writeString(String.valueOf(context[2 * i + 1]));
+				}
+			}
+
+			if (fields != null)
+			{
+				ensure(5);
+				writeVarLong(fields.length);
+				for (int i = 0; i < fields.length; i++)
+				{
+					writeReference(fieldKeys[i], fields[i].getKey());
+					writeArgument(values[i], valueTexts == null ? null : valueTexts[i]);
+				}
+			}
+			committed = position;
+			lastTime = entry.timeStamp;
+		} catch (IOException ex)
+		{
+			// drop the incomplete record, the complete ones are kept for the next try
+			position = committed;
+			reportError("Cannot write binary log entry", ex);
+		}
+	}
+
+	/**
+	 * Looks up the id of the given string, defining it first if it has not been
+	 * written yet.
+	 *
+	 * @return the id of the string or {@link #INLINE} if the string table is full
+	 */
+	private int intern(String value) throws IOException
+	{
+		Integer id = strings.get(value);
+		if (id != null)
+			return id;
+		if (strings.size() >= MAX_STRINGS)
+			return INLINE;
+		int next = strings.size() + 1;
+		ensure(6);
+		buffer[position++] = TAG_STRING;
+		writeVarLong(next);
+		writeString(value);
+		committed = position;
+		strings.put(value, next);
+		return next;
+	}
+
+	/**
+	 * Interns every <code>step</code>-th string of the given array, starting with
+	 * the first one.
+	 */
+	private int[] internKeys(String[] keys, int step) throws IOException
+	{
+		int[] ids = new int[keys.length / step];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = intern(keys[i * step]);
+		return ids;
+	}
+
+	private int[] internFieldKeys(LogField[] fields) throws IOException
+	{
+		int[] ids = new int[fields.length];
+		for (int i = 0; i < fields.length; i++)
+			ids[i] = intern(fields[i].getKey());
+		return ids;
+	}
+
+	private static Object[] fieldValues(LogField[] fields)
+	{
+		Object[] values = new Object[fields.length];
+		for (int i = 0; i < fields.length; i++)
+			values[i] = fields[i].getValue();
+		return values;
+	}
+
+	/**
+	 * Writes the id of an interned string or the string itself.
+	 */
+	private void writeReference(int id, String value) throws IOException
+	{
+		ensure(5);
+		writeVarLong(id);
+		if (id == INLINE)
+			writeString(value);
+	}
+
+	/**
+	 * Converts the arguments that are not written in binary form to strings
+	 * before the record is started, so a <code>toString()</code> that logs
+	 * itself cannot end up in the middle of the record.
+	 *
+	 * @return the texts of the arguments or null if all of them are written in
+	 *         binary form
+	 */
+	private static String[] argumentTexts(Object[] args)
+	{
+		String[] texts = null;
+		for (int i = 0; i < args.length; i++)
+		{
+			if (isBinary(args[i]))
+				continue;
+			if (texts == null)
+				texts = new String[args.length];
+			texts[i] = String.valueOf(args[i]);
+		}
+		return texts;
+	}
+
+	/**
+	 * @return true if the argument is written in binary form by
+	 *         {@link #writeArgument(Object, String)}
+	 */
+	private static boolean isBinary(Object arg)
+	{
+		return arg == null || arg instanceof Integer || arg instanceof Short || arg instanceof Byte
+				|| arg instanceof Long || arg instanceof Boolean || arg instanceof Character || arg instanceof Float
+				|| arg instanceof Double;
+	}
+
+	private void writeArgument(Object arg, String text) throws IOException
+	{
+		ensure(11);
+		if (arg == null)
+		{
+			buffer[position++] = ARG_NULL;
+		} else if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte)
+		{
+			buffer[position++] = ARG_INT;
+			writeVarLong(zigZag(((Number) arg).intValue()));
+		} else if (arg instanceof Long)
+		{
+			buffer[position++] = ARG_LONG;
+			writeVarLong(zigZag((Long) arg));
+		} else if (arg instanceof Boolean)
+		{
+			buffer[position++] = ARG_BOOLEAN;
+			buffer[position++] = (byte) ((Boolean) arg ? 1 : 0);
+		} else if (arg instanceof Character)
+		{
+			buffer[position++] = ARG_CHAR;
+			writeVarLong((Character) arg);
+		} else if (arg instanceof Float)
+		{
+			buffer[position++] = ARG_FLOAT;
+			writeFixed(Float.floatToIntBits((Float) arg), 4);
+		} else if (arg instanceof Double)
+		{
+			buffer[position++] = ARG_DOUBLE;
+			writeFixed(Double.doubleToLongBits((Double) arg), 8);
+		} else
+		{
+			buffer[position++] = ARG_STRING;
+			writeString(text);
+		}
+	}
+
+	/**
+	 * Writes the length and the UTF-8 bytes of a string, ASCII strings are
+	 * copied without creating a byte array.
+	 */
+	private void writeString(String value) throws IOException
+	{
+		int length = value.length();
+		boolean ascii = true;
+		for (int i = 0; i < length && ascii; i++)
+			ascii = value.charAt(i) < 0x80;
+
+		if (ascii)
+		{
+			ensure(5 + length);
+			writeVarLong(length);
+			for (int i = 0; i < length; i++)
+				buffer[position++] = (byte) value.charAt(i);
+		} else
+		{
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			ensure(5 + bytes.length);
+			writeVarLong(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+	}
+
+	/**
+	 * Writes an unsigned variable length number, the caller ensures the
+	 * space.
+	 */
+	private void writeVarLong(long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	/**
+	 * Writes the lower <code>bytes</code> bytes of a number in big endian order,
+	 * the caller ensures the space.
+	 */
+	private void writeFixed(long value, int bytes)
+	{
+		for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8)
+			buffer[position++] = (byte) (value >>> shift);
+	}
+
+	private static long zigZag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Makes sure the buffer has space for the given number of bytes, writing
+	 * the complete records to the stream or growing it if necessary.
+	 */
+	private void ensure(int bytes) throws IOException
+	{
+		if (position + bytes <= buffer.length)
+			return;
+		drain();
+		if (position + bytes > buffer.length)
+		{
+			int capacity = buffer.length;
+			while (capacity < position + bytes)
+				capacity <<= 1;
+			byte[] grown = new byte[capacity];
+			System.arraycopy(buffer, 0, grown, 0, position);
+			buffer = grown;
+		}
+	}
+
+	/**
+	 * Writes the complete records to the stream and moves the record that is
+	 * being written to the start of the buffer.
+	 */
+	private void drain() throws IOException
+	{
+		if (committed == 0 || output == null)
+			return;
+		output.write(buffer, 0, committed);
+		int pending = position - committed;
+		System.arraycopy(buffer, committed, buffer, 0, pending);
+		position = pending;
+		committed = 0;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void flush()
+	{
+		if (output != null)
+		{
+			try
+			{
+				drain();
+				output.flush();
+			} catch (IOException ex)
+			{
+				reportError("Cannot flush binary log", ex);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if (output != null)
+		{
+			try
+			{
+				drain();
+				output.flush();
+				output.close();
+			} catch (IOException ex)
+			{
+				reportError("Cannot close binary log", ex);
+			}
+			output = null;
+		}
+	}
+}
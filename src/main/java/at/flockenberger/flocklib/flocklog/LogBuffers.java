@@ -0,0 +1,71 @@
+package at.flockenberger.flocklib.flocklog;
+
+/**
+ * <h1>LogBuffers</h1><br>
+ * Hands out one reusable {@link StringBuilder} per thread to format log
+ * entries into.<br>
+ * If the builder of a thread is already in use, e.g. because the
+ * <code>toString()</code> of a logged object logs itself, a new builder is
+ * created instead.
+ * 
+ * @author Florian Wagner
+ *
+ */
+final class LogBuffers
+{
+	/**
+	 * the initial capacity of a builder
+	 */
+	private static final int INITIAL_CAPACITY = 512;
+
+	/**
+	 * builders that grew beyond this capacity are not kept
+	 */
+	private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+	/**
+	 * the builder of every thread
+	 */
+	private static final ThreadLocal<Holder> BUFFERS = ThreadLocal.withInitial(Holder::new);
+
+	private LogBuffers()
+	{}
+
+	/**
+	 * @return an empty builder, must be handed back with
+	 *         {@link #release(StringBuilder)}
+	 */
+	static StringBuilder acquire()
+	{
+		Holder holder = BUFFERS.get();
+		if (holder.inUse)
+			return new StringBuilder(INITIAL_CAPACITY);
+		holder.inUse = true;
+		holder.builder.setLength(0);
+		return holder.builder;
+	}
+
+	/**
+	 * Hands back a builder that was acquired with {@link #acquire()}.
+	 * 
+	 * @param builder the builder
+	 */
+	static void release(StringBuilder builder)
+	{
+		Holder holder = BUFFERS.get();
+		if (holder.builder != builder)
+			return;
+		if (builder.capacity() > MAX_RETAINED_CAPACITY)
+			holder.builder = new StringBuilder(INITIAL_CAPACITY);
+		holder.inUse = false;
+	}
+
+	/**
+	 * The builder of one thread.
+	 */
+	private static final class Holder
+	{
+		StringBuilder builder = new StringBuilder(INITIAL_CAPACITY);
+		boolean inUse;
+	}
+}
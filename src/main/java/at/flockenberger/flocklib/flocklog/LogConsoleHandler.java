@@ -13,6 +13,11 @@ import java.io.PrintStream;
  */
 public class LogConsoleHandler extends LogStreamHandler
 {
+	/**
+	 * flag to flush the console after every entry
+	 */
+	private volatile boolean autoFlush = true;
+
 	/**
 	 * Creates a new {@link LogConsoleHandler}
 	 */
@@ -28,9 +33,28 @@ public class LogConsoleHandler extends LogStreamHandler
 	public void log(LogEntry entry)
 	{
 		super.log(entry);
-		flush();
+		if (autoFlush)
+			flush();
+	}
+
+	/**
+	 * Enables or disables flushing after every entry.<br>
+	 * Without auto flush entries only appear on the console once
+	 * {@link #flush()} is called, e.g. by an {@link AsyncLogHandler}.
+	 * 
+	 * @param autoFlush true to flush after every entry
+	 */
+	public void setAutoFlush(boolean autoFlush)
+	{
+		this.autoFlush = autoFlush;
 	}
 
+	/**
+	 * @return true if the console is flushed after every entry
+	 */
+	public boolean isAutoFlush()
+	{ return this.autoFlush; }
+
 	/**
 	 * {@inheritDoc}
 	 */
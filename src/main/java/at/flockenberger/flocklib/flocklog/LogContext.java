@@ -0,0 +1,149 @@
+package at.flockenberger.flocklib.flocklog;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
+
+/**
+ * <h1>LogContext</h1><br>
+ * The mapped diagnostic context of the current thread.<br>
+ * Every entry that is logged on a thread carries the key-value pairs that are
+ * put into the context of that thread at the time, e.g. a request id that is
+ * put in once when the request is received. Structured formatters like the
+ * {@link LogJsonFormatter} write the context of every entry.<br>
+ * The pairs of a thread are kept in an array that is replaced on every change,
+ * so an entry keeps a reference to the current array instead of copying it.
+ * 
+ * @author Florian Wagner
+ *
+ */
+public final class LogContext
+{
+	/**
+	 * the keys and values of every thread, alternating, null if the context is
+	 * empty
+	 */
+	private static final ThreadLocal<String[]> CONTEXT = new ThreadLocal<String[]>();
+
+	private LogContext()
+	{}
+
+	/**
+	 * Puts a key-value pair into the context of the current thread, replacing
+	 * the value of an existing key.
+	 * 
+	 * @param key   the key
+	 * @param value the value, null removes the key
+	 */
+	public static void put(String key, String value)
+	{
+		ObjectUtils.isNullThrow(key, "Context key must not be null!");
+		if (value == null)
+		{
+			remove(key);
+			return;
+		}
+		String[] current = CONTEXT.get();
+		int index = indexOf(current, key);
+		String[] updated;
+		if (index >= 0)
+		{
+			updated = current.clone();
+			updated[index + 1] = value;
+		} else if (current == null)
+		{
+			updated = new String[] { key, value };
+		} else
+		{
+			updated = Arrays.copyOf(current, current.length + 2);
+			updated[current.length] = key;
+			updated[current.length + 1] = value;
+		}
+		CONTEXT.set(updated);
+	}
+
+	/**
+	 * @param key the key
+	 * @return the value of the key in the context of the current thread or null
+	 */
+	public static String get(String key)
+	{
+		String[] current = CONTEXT.get();
+		int index = indexOf(current, key);
+		return index < 0 ? null : current[index + 1];
+	}
+
+	/**
+	 * Removes a key from the context of the current thread.
+	 * 
+	 * @param key the key to remove
+	 */
+	public static void remove(String key)
+	{
+		String[] current = CONTEXT.get();
+		int index = indexOf(current, key);
+		if (index < 0)
+			return;
+		if (current.length == 2)
+		{
+			CONTEXT.remove();
+			return;
+		}
+		String[] updated = new String[current.length - 2];
+		System.arraycopy(current, 0, updated, 0, index);
+		System.arraycopy(current, index + 2, updated, index, updated.length - index);
+		CONTEXT.set(updated);
+	}
+
+	/**
+	 * Removes all keys from the context of the current thread.
+	 */
+	public static void clear()
+	{
+		CONTEXT.remove();
+	}
+
+	/**
+	 * @return a copy of the context of the current thread
+	 */
+	public static Map<String, String> getContext()
+	{
+		return toMap(CONTEXT.get());
+	}
+
+	/**
+	 * @return the pairs of the current thread, must not be modified, null if the
+	 *         context is empty
+	 */
+	static String[] snapshot()
+	{
+		return CONTEXT.get();
+	}
+
+	/**
+	 * @param pairs alternating keys and values or null
+	 * @return an unmodifiable map of the pairs in their order
+	 */
+	static Map<String, String> toMap(String[] pairs)
+	{
+		if (pairs == null)
+			return Collections.emptyMap();
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		for (int i = 0; i < pairs.length; i += 2)
+			map.put(pairs[i], pairs[i + 1]);
+		return Collections.unmodifiableMap(map);
+	}
+
+	private static int indexOf(String[] pairs, String key)
+	{
+		if (pairs == null)
+			return -1;
+		for (int i = 0; i < pairs.length; i += 2)
+			if (pairs[i].equals(key))
+				return i;
+		return -1;
+	}
+}
@@ -1,7 +1,5 @@
 package at.flockenberger.flocklib.flocklog;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 
 /**
  * <h1>LogDefaultFormatter</h1><br>
@@ -12,6 +10,47 @@ import java.util.Date;
  */
 public class LogDefaultFormatter extends LogFormatter
 {
+	/**
+	 * the format of the time stamp of every entry
+	 */
+	private static final LogTimeFormat TIME_FORMAT = new LogTimeFormat("HH:mm:ss");
+
+	/**
+	 * the format of the head and tail time stamps
+	 */
+	static final LogTimeFormat DATE_FORMAT = new LogTimeFormat("dd.MM.yyyy HH:mm:ss");
+
+	/**
+	 * the line separator of the system
+	 */
+	static final String LINE_SEPARATOR = System.lineSeparator();
+
+	/**
+	 * flag to print the source location of every entry
+	 */
+	private volatile boolean printLocation = false;
+
+	/**
+	 * Enables or disables printing the source location of every entry.<br>
+	 * Printing the location makes the logger capture it on every log call.
+	 * 
+	 * @param printLocation true to print the class, method and line of the log
+	 *                      call
+	 */
+	public void setPrintLocation(boolean printLocation)
+	{
+		this.printLocation = printLocation;
+		locationRequirementChanged();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean requiresLocation()
+	{
+		return this.printLocation;
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -20,18 +59,39 @@ public class LogDefaultFormatter extends LogFormatter
 	public String formatLogEntry(LogEntry entry)
 	{
 		StringBuilder sb = new StringBuilder();
-		sb.append("[");
+		formatLogEntry(entry, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void formatLogEntry(LogEntry entry, StringBuilder sb)
+	{
+		sb.append('[');
 		sb.append(entry.loggerName);
-		sb.append("]");
-		sb.append("[");
-		sb.append(calcTime(entry.timeStamp));
-		sb.append("]");
-		sb.append("[");
+		sb.append(']');
+		sb.append('[');
+		TIME_FORMAT.formatTo(entry.timeStamp, sb);
+		sb.append(']');
+		sb.append('[');
 		sb.append(entry.level.getName());
-		sb.append("]:");
-		sb.append(entry.message);
-		sb.append(System.lineSeparator());
-		return sb.toString();
+		sb.append(']');
+		if (printLocation && entry.hasSource())
+		{
+			sb.append('[');
+			sb.append(entry.sourceClassName);
+			sb.append('.');
+			sb.append(entry.sourceMethodName);
+			sb.append(':');
+			sb.append(entry.sourceLineNumber);
+			sb.append(']');
+		}
+		sb.append(':');
+		entry.appendMessage(sb);
+		entry.appendFields(sb);
+		sb.append(LINE_SEPARATOR);
 	}
 
 	/**
@@ -39,28 +99,12 @@ public class LogDefaultFormatter extends LogFormatter
 	 */
 	@Override
 	public String getHead()
-	{ return "LOG STARTED " + calcDate(System.currentTimeMillis()); }
+	{ return "LOG STARTED " + DATE_FORMAT.format(System.currentTimeMillis()); }
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public String getTail()
-	{ return "LOG STOPPED " + calcDate(System.currentTimeMillis()); }
-	
-	private String calcDate(long millisecs)
-	{
-		SimpleDateFormat date_format = new SimpleDateFormat("dd.mm.yyyy HH:mm:ss");
-		Date resultdate = new Date(millisecs);
-		return date_format.format(resultdate);
-	}
-
-	private String calcTime(long millisecs)
-	{
-		SimpleDateFormat date_format = new SimpleDateFormat("HH:mm:ss");
-		Date resultdate = new Date(millisecs);
-		return date_format.format(resultdate);
-	}
-
-	
+	{ return "LOG STOPPED " + DATE_FORMAT.format(System.currentTimeMillis()); }
 }
@@ -1,14 +1,22 @@
 package at.flockenberger.flocklib.flocklog;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-
-import at.flockenberger.flocklib.flockutil.ReflectUtils;
+import java.lang.StackWalker.StackFrame;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * <h1>LogEntry</h1><br>
  * Every message that is being logged with the {@link FlockLogger} is converted
  * into a {@link LogEntry}. A LogEntry stores the time stamp, message and the
- * initial {@link LogLevel}.
+ * initial {@link LogLevel}.<br>
+ * The source location of the log call is only captured if the logger or one
+ * of its handlers asks for it, see {@link FlockLogger#setCaptureLocation(boolean)}
+ * and {@link LogFormatter#requiresLocation()}.
  * 
  * @author Florian Wagner
  *
@@ -29,15 +37,37 @@ public class LogEntry implements Serializable
 	protected long timeStamp;
 
 	/**
-	 * the message this entry holds
+	 * the message this entry holds, null until a parameterized message has been
+	 * formatted
 	 */
 	protected String message;
 
+	/**
+	 * the format of a parameterized message
+	 */
+	private transient String format;
+
+	/**
+	 * the arguments of a parameterized message
+	 */
+	private transient Object[] args;
+
 	/**
 	 * the logging level of this entry
 	 */
 	protected LogLevel level;
 
+	/**
+	 * the structured fields of this entry, null if there are none
+	 */
+	protected transient LogField[] fields;
+
+	/**
+	 * the {@link LogContext} of the logging thread as alternating keys and
+	 * values, null if it was empty
+	 */
+	protected String[] context;
+
 	/**
 	 * the calling class name
 	 */
@@ -54,11 +84,12 @@ public class LogEntry implements Serializable
 	protected int sourceLineNumber = 0;
 
 	/**
-	 * Creates a new LogEntry.
+	 * Creates a new LogEntry without a source location.
 	 * 
-	 * @param time the time stamp of the log message
-	 * @param msg  the message that was being logged
-	 * @param lvl  the {@link LogLevel} for the message
+	 * @param loggerName the name of the logger
+	 * @param time       the time stamp of the log message
+	 * @param msg        the message that was being logged
+	 * @param lvl        the {@link LogLevel} for the message
 	 */
 	public LogEntry(String loggerName, long time, String msg, LogLevel lvl)
 	{
@@ -66,8 +97,285 @@ public class LogEntry implements Serializable
 		this.message = msg;
 		this.level = lvl;
 		this.loggerName = loggerName;
-		this.sourceClassName = ReflectUtils.getCallingClassName();
-		this.sourceMethodName = ReflectUtils.getCallingMethodName();
-		this.sourceLineNumber = ReflectUtils.getCallingLineNumber();
 	}
+
+	/**
+	 * Creates a new LogEntry with a parameterized message.<br>
+	 * The message is formatted the first time {@link #getMessage()} is called,
+	 * see {@link FlockLogger#log(LogLevel, String, Object)}.
+	 * 
+	 * @param loggerName the name of the logger
+	 * @param time       the time stamp of the log message
+	 * @param format     the message format, every <code>{}</code> is replaced by
+	 *                   the next argument
+	 * @param args       the arguments or null if <code>format</code> is the
+	 *                   message
+	 * @param lvl        the {@link LogLevel} for the message
+	 */
+	public LogEntry(String loggerName, long time, String format, Object[] args, LogLevel lvl)
+	{
+		this(loggerName, time, args == null ? format : null, lvl);
+		if (args != null)
+		{
+			this.format = format;
+			this.args = args;
+		}
+	}
+
+	/**
+	 * @return the message of this entry, a parameterized message is formatted on
+	 *         the first call
+	 */
+	public String getMessage()
+	{
+		String msg = this.message;
+		if (msg == null && this.args != null)
+		{
+			msg = format(this.format, this.args);
+			this.message = msg;
+		}
+		return msg;
+	}
+
+	/**
+	 * Replaces every <code>{}</code> in <code>format</code> with the next
+	 * argument. Placeholders without an argument are kept, arguments without a
+	 * placeholder are ignored.
+	 * 
+	 * @param format the message format
+	 * @param args   the arguments
+	 * @return the formatted message
+	 */
+	static String format(String format, Object[] args)
+	{
+		if (format == null)
+			return null;
+		StringBuilder sb = new StringBuilder(format.length() + 16 * args.length);
+		formatTo(format, args, sb);
+		return sb.toString();
+	}
+
+	private static void formatTo(String format, Object[] args, StringBuilder sb)
+	{
+		int start = 0;
+		int arg = 0;
+		int index;
+		while (arg < args.length && (index = format.indexOf("{}", start)) >= 0)
+		{
+			sb.append(format, start, index);
+			appendArgument(args[arg++], sb);
+			start = index + 2;
+		}
+		sb.append(format, start, format.length());
+	}
+
+	/**
+	 * Appends an argument, boxed primitives are appended without creating a
+	 * string first.
+	 */
+	static void appendArgument(Object arg, StringBuilder sb)
+	{
+		if (arg instanceof Integer)
+			sb.append(((Integer) arg).intValue());
+		else if (arg instanceof Long)
+			sb.append(((Long) arg).longValue());
+		else if (arg instanceof Boolean)
+			sb.append(((Boolean) arg).booleanValue());
+		else if (arg instanceof Character)
+			sb.append(((Character) arg).charValue());
+		else if (arg instanceof CharSequence)
+			sb.append((CharSequence) arg);
+		else
+			sb.append(arg);
+	}
+
+	/**
+	 * Replaces the arguments and field values that may still change after the
+	 * log call with their string form.<br>
+	 * Called before the entry is handed to another thread, so the message shows
+	 * the state of the arguments at the time of the log call. Strings, boxed
+	 * primitives and enums are kept as they are, the argument array of the
+	 * caller is not modified.
+	 */
+	void snapshotArguments()
+	{
+		Object[] args = this.args;
+		if (args != null && this.message == null)
+		{
+			Object[] copy = null;
+			for (int i = 0; i < args.length; i++)
+			{
+				if (isImmutable(args[i]))
+					continue;
+				if (copy == null)
+					copy = args.clone();
+				copy[i] = String.valueOf(args[i]);
+			}
+			if (copy != null)
+				this.args = copy;
+		}
+
+		LogField[] fields = this.fields;
+		if (fields != null)
+		{
+			LogField[] copy = null;
+			for (int i = 0; i < fields.length; i++)
+			{
+				if (isImmutable(fields[i].getValue()))
+					continue;
+				if (copy == null)
+					copy = fields.clone();
+				copy[i] = LogField.of(fields[i].getKey(), String.valueOf(fields[i].getValue()));
+			}
+			if (copy != null)
+				this.fields = copy;
+		}
+	}
+
+	private static boolean isImmutable(Object value)
+	{
+		return value == null || value instanceof String || value instanceof Integer || value instanceof Long
+				|| value instanceof Boolean || value instanceof Character || value instanceof Double
+				|| value instanceof Float || value instanceof Short || value instanceof Byte || value instanceof Enum;
+	}
+
+	/**
+	 * Appends the message of this entry to the given {@link StringBuilder}.<br>
+	 * A parameterized message that has not been formatted yet is formatted
+	 * straight into the builder.
+	 * 
+	 * @param sb the builder to append to
+	 */
+	public void appendMessage(StringBuilder sb)
+	{
+		String msg = this.message;
+		if (msg == null && this.args != null)
+			formatTo(this.format, this.args, sb);
+		else
+			sb.append(msg);
+	}
+
+	/**
+	 * Appends the structured fields of this entry as <code>key=value</code>
+	 * pairs, each preceded by a space.
+	 * 
+	 * @param sb the builder to append to
+	 */
+	void appendFields(StringBuilder sb)
+	{
+		if (this.fields == null)
+			return;
+		for (LogField field : this.fields)
+		{
+			sb.append(' ');
+			sb.append(field.getKey());
+			sb.append('=');
+			appendArgument(field.getValue(), sb);
+		}
+	}
+
+	/**
+	 * @return the format of a parameterized message or null if the message is
+	 *         not parameterized
+	 */
+	String getFormat()
+	{ return this.format; }
+
+	/**
+	 * @return the arguments of a parameterized message or null if the message is
+	 *         not parameterized
+	 */
+	Object[] getArguments()
+	{ return this.args; }
+
+	/**
+	 * @return the name of the logger that created this entry
+	 */
+	public String getLoggerName()
+	{ return this.loggerName; }
+
+	/**
+	 * @return the time stamp when this entry was created
+	 */
+	public long getTimeStamp()
+	{ return this.timeStamp; }
+
+	/**
+	 * @return the logging level of this entry
+	 */
+	public LogLevel getLevel()
+	{ return this.level; }
+
+	/**
+	 * @return the structured fields of this entry
+	 */
+	public List<LogField> getFields()
+	{ return this.fields == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(this.fields)); }
+
+	/**
+	 * @return the {@link LogContext} of the thread that logged this entry
+	 */
+	public Map<String, String> getContext()
+	{ return LogContext.toMap(this.context); }
+
+	private void writeObject(ObjectOutputStream out) throws IOException
+	{
+		getMessage();
+		out.defaultWriteObject();
+	}
+
+	/**
+	 * Sets the source location of this entry.
+	 * 
+	 * @param frame the stack frame of the log call
+	 */
+	void setSource(StackFrame frame)
+	{
+		if (frame == null)
+			return;
+		this.sourceClassName = frame.getClassName();
+		this.sourceMethodName = frame.getMethodName();
+		this.sourceLineNumber = frame.getLineNumber();
+	}
+
+	/**
+	 * Sets the source location of this entry.
+	 * 
+	 * @param className  the name of the calling class
+	 * @param methodName the name of the calling method
+	 * @param lineNumber the calling line number
+	 */
+	void setSource(String className, String methodName, int lineNumber)
+	{
+		this.sourceClassName = className;
+		this.sourceMethodName = methodName;
+		this.sourceLineNumber = lineNumber;
+	}
+
+	/**
+	 * @return true if the source location of this entry has been captured
+	 */
+	public boolean hasSource()
+	{ return !this.sourceClassName.isEmpty(); }
+
+	/**
+	 * @return the name of the class the entry was logged from or an empty string
+	 *         if the location was not captured
+	 */
+	public String getSourceClassName()
+	{ return this.sourceClassName; }
+
+	/**
+	 * @return the name of the method the entry was logged from or an empty string
+	 *         if the location was not captured
+	 */
+	public String getSourceMethodName()
+	{ return this.sourceMethodName; }
+
+	/**
+	 * @return the line number the entry was logged from or 0 if the location was
+	 *         not captured
+	 */
+	public int getSourceLineNumber()
+	{ return this.sourceLineNumber; }
 }
\ No newline at end of file
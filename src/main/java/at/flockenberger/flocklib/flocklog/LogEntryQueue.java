@@ -0,0 +1,130 @@
+package at.flockenberger.flocklib.flocklog;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <h1>LogEntryQueue</h1><br>
+ * A bounded, lock-free queue of {@link LogEntry} objects.<br>
+ * Every slot of the pre-allocated array carries a sequence number that tells
+ * producers and consumers whether the slot is free or filled, so both sides
+ * only need a single compare-and-set to claim a position and never lock. Any
+ * number of threads may offer and poll at the same time.
+ * 
+ * @author Florian Wagner
+ *
+ */
+final class LogEntryQueue
+{
+	/**
+	 * the slots of this queue
+	 */
+	private final LogEntry[] entries;
+
+	/**
+	 * the sequence number of every slot
+	 */
+	private final AtomicLongArray sequences;
+
+	/**
+	 * the index mask of {@link #entries}
+	 */
+	private final int mask;
+
+	/**
+	 * the position of the next offer
+	 */
+	private final AtomicLong tail;
+
+	/**
+	 * the position of the next poll
+	 */
+	private final AtomicLong head;
+
+	/**
+	 * Creates a new queue.
+	 * 
+	 * @param capacity the minimum capacity, rounded up to a power of two
+	 */
+	LogEntryQueue(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.entries = new LogEntry[size];
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++)
+			sequences.set(i, i);
+		this.mask = size - 1;
+		this.tail = new AtomicLong();
+		this.head = new AtomicLong();
+	}
+
+	/**
+	 * Adds an entry to the end of this queue.
+	 * 
+	 * @param entry the entry to add
+	 * @return false if the queue is full
+	 */
+	boolean offer(LogEntry entry)
+	{
+		long position = tail.get();
+		while (true)
+		{
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0)
+			{
+				if (tail.compareAndSet(position, position + 1))
+				{
+					entries[index] = entry;
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (difference < 0)
+				return false;
+			else
+				position = tail.get();
+		}
+	}
+
+	/**
+	 * Removes the first entry of this queue.
+	 * 
+	 * @return the removed entry or null if the queue is empty
+	 */
+	LogEntry poll()
+	{
+		long position = head.get();
+		while (true)
+		{
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0)
+			{
+				if (head.compareAndSet(position, position + 1))
+				{
+					LogEntry entry = entries[index];
+					entries[index] = null;
+					sequences.set(index, position + mask + 1);
+					return entry;
+				}
+				position = head.get();
+			} else if (difference < 0)
+				return null;
+			else
+				position = head.get();
+		}
+	}
+
+	/**
+	 * @return the number of entries in this queue
+	 */
+	int size()
+	{ return (int) Math.max(0, tail.get() - head.get()); }
+
+	/**
+	 * @return the number of entries this queue can hold
+	 */
+	int capacity()
+	{ return entries.length; }
+}
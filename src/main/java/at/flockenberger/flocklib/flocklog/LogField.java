@@ -0,0 +1,58 @@
+package at.flockenberger.flocklib.flocklog;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
+
+/**
+ * <h1>LogField</h1><br>
+ * A key-value pair that is logged along with the message of a
+ * {@link LogEntry}, see {@link FlockLogger#logWith(LogLevel, String, LogField...)}.<br>
+ * Structured formatters like the {@link LogJsonFormatter} write every field as
+ * a property of its own, so it can be read without parsing the message.
+ * 
+ * @author Florian Wagner
+ *
+ */
+public final class LogField
+{
+	private final String key;
+	private final Object value;
+
+	private LogField(String key, Object value)
+	{
+		this.key = key;
+		this.value = value;
+	}
+
+	/**
+	 * Creates a new {@link LogField}.<br>
+	 * Numbers and booleans are written as they are, any other value is written as
+	 * the result of its <code>toString()</code>.
+	 * 
+	 * @param key   the key of the field
+	 * @param value the value of the field, may be null
+	 * @return the new field
+	 */
+	public static LogField of(String key, Object value)
+	{
+		ObjectUtils.isNullThrow(key, "Field key must not be null!");
+		return new LogField(key, value);
+	}
+
+	/**
+	 * @return the key of this field
+	 */
+	public String getKey()
+	{ return this.key; }
+
+	/**
+	 * @return the value of this field
+	 */
+	public Object getValue()
+	{ return this.value; }
+
+	@Override
+	public String toString()
+	{
+		return key + "=" + value;
+	}
+}
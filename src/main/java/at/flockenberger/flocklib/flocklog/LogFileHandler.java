@@ -0,0 +1,632 @@
+package at.flockenberger.flocklib.flocklog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
+
+/**
+ * <h1>LogFileHandler</h1><br>
+ * The LogFileHandler writes log entries into a file through a memory mapped
+ * region of a {@link FileChannel}.<br>
+ * Entries are encoded as UTF-8 straight into the mapped memory, so logging an
+ * entry is a plain memory copy. A system call is only made when the next region
+ * of {@value #REGION_SIZE} bytes is mapped, when the handler is flushed and on
+ * rollover.<br>
+ * The file is rolled over once it reaches the maximum file size or the
+ * rollover interval has passed. A closed file is renamed to
+ * <code>&lt;name&gt;.&lt;yyyyMMdd-HHmmss-SSS&gt;</code>, using the time it was
+ * opened, and then compressed with gzip on a background thread. The archives
+ * kept next to the log file are capped by count and by total size, the oldest
+ * ones are deleted first.<br>
+ * While the handler is open the file is padded with zeros up to the end of the
+ * mapped region. The padding is cut off when the file is closed, and when an
+ * existing file is opened after a crash.<br>
+ * I/O errors are passed to {@link #reportError(String, Exception)}. If the
+ * file cannot be archived it is reopened and written on, if it cannot be
+ * opened the entries are dropped. Both are retried after
+ * {@value #RETRY_INTERVAL} ms.
+ *
+ * @see LogHandler
+ * @author Florian Wagner
+ *
+ */
+public class LogFileHandler extends LogHandler
+{
+	/**
+	 * the size of one mapped region
+	 */
+	public static final int REGION_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * the default maximum size of a log file
+	 */
+	public static final long DEFAULT_MAX_FILE_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * the default number of archived files that are kept
+	 */
+	public static final int DEFAULT_MAX_ARCHIVED_FILES = 10;
+
+	/**
+	 * the time in milliseconds after which a failed rollover or open is retried
+	 */
+	public static final long RETRY_INTERVAL = 1000;
+
+	/**
+	 * the suffix of compressed archives
+	 */
+	private static final String GZIP_SUFFIX = ".gz";
+
+	/**
+	 * the suffix of an archive while it is compressed
+	 */
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * the time stamp in the names of archives, sorts in chronological order
+	 */
+	private static final DateTimeFormatter ARCHIVE_STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+
+	/**
+	 * counts the created handlers to name their threads
+	 */
+	private static final AtomicInteger COUNT = new AtomicInteger();
+
+	/**
+	 * the log file
+	 */
+	private final Path file;
+
+	/**
+	 * matches the names of the archives of {@link #file}
+	 */
+	private final Pattern archivePattern;
+
+	/**
+	 * compresses and deletes archives
+	 */
+	private final ExecutorService archiver;
+
+	private final CharsetEncoder encoder;
+	private CharBuffer chars;
+
+	private FileChannel channel;
+	private MappedByteBuffer region;
+
+	/**
+	 * the position of {@link #region} in the file
+	 */
+	private long regionStart;
+
+	/**
+	 * the time the current file has been opened
+	 */
+	private long openedAt;
+
+	/**
+	 * the time of the next rollover, {@link Long#MAX_VALUE} without a rollover
+	 * interval
+	 */
+	private long nextRollover = Long.MAX_VALUE;
+
+	/**
+	 * the time before which a failed rollover or open is not retried
+	 */
+	private long retryAt;
+
+	private volatile long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+	private volatile long rolloverInterval;
+	private volatile int maxArchivedFiles = DEFAULT_MAX_ARCHIVED_FILES;
+	private volatile long maxArchivedBytes = Long.MAX_VALUE;
+	private volatile boolean compress = true;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new {@link LogFileHandler} that appends to the given file.
+	 *
+	 * @param file the log file, it is created if it does not exist
+	 * @throws IOException if the file cannot be opened
+	 */
+	public LogFileHandler(Path file) throws IOException
+	{
+		this(file, new LogDefaultFormatter());
+	}
+
+	/**
+	 * Creates a new {@link LogFileHandler} that appends to the given file.
+	 *
+	 * @param file    the log file, it is created if it does not exist
+	 * @param logfrom the formatter of this handler
+	 * @throws IOException if the file cannot be opened
+	 */
+	public LogFileHandler(Path file, LogFormatter logfrom) throws IOException
+	{
+		ObjectUtils.isNullThrow(file, "Log file must not be null!");
+		this.file = file.toAbsolutePath();
+		this.archivePattern = Pattern
+				.compile(Pattern.quote(this.file.getFileName().toString()) + "\\.\\d{8}-\\d{6}-\\d{3}(\\.gz)?");
+		this.encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.chars = CharBuffer.allocate(8192);
+		this.archiver = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "FlockLog-Archive-" + COUNT.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		setFormatter(logfrom);
+
+		Path directory = this.file.getParent();
+		if (directory != null)
+			Files.createDirectories(directory);
+		open(System.currentTimeMillis());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void log(LogEntry entry)
+	{
+		if (entry == null || closed || !shouldLog(entry))
+			return;
+		StringBuilder sb = LogBuffers.acquire();
+		try
+		{
+			try
+			{
+				getFormatter().formatLogEntry(entry, sb);
+			} catch (Exception ex)
+			{
+				return;
+			}
+			write(sb, entry.getTimeStamp());
+		} finally
+		{
+			LogBuffers.release(sb);
+		}
+	}
+
+	/**
+	 * Encodes the given text into the mapped region, rolling the file over
+	 * first if it is due.
+	 *
+	 * @param text the text to write
+	 * @param time the time stamp of the entry
+	 */
+	private synchronized void write(StringBuilder text, long time)
+	{
+		if (closed || (region == null && time < retryAt))
+			return;
+
+		int length = text.length();
+		if (chars.capacity() < length)
+		{
+			int capacity = chars.capacity();
+			while (capacity < length)
+				capacity <<= 1;
+			chars = CharBuffer.allocate(capacity);
+		}
+		chars.clear();
+		text.getChars(0, length, chars.array(), 0);
+		chars.limit(length);
+
+		try
+		{
+			if (region == null)
+				open(time);
+			else if ((position() >= maxFileSize || time >= nextRollover) && time >= retryAt)
+				rollover(time);
+
+			encoder.reset();
+			CoderResult result;
+			while ((result = encoder.encode(chars, region, true)).isOverflow())
+				nextRegion();
+			while (encoder.flush(region).isOverflow())
+				nextRegion();
+			if (result.isError())
+				result.throwException();
+		} catch (IOException ex)
+		{
+			retryAt = time + RETRY_INTERVAL;
+			reportError("Cannot write to " + file, ex);
+		}
+	}
+
+	/**
+	 * @return the number of bytes written to the current file
+	 */
+	private long position()
+	{
+		return regionStart + region.position();
+	}
+
+	/**
+	 * Maps the region that follows the current one.
+	 */
+	private void nextRegion() throws IOException
+	{
+		long start = position();
+		region = channel.map(MapMode.READ_WRITE, start, REGION_SIZE);
+		regionStart = start;
+	}
+
+	/**
+	 * Opens the log file and maps the region after its last written byte.
+	 *
+	 * @param time the current time
+	 */
+	private void open(long time) throws IOException
+	{
+		FileChannel opened = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try
+		{
+			long start = writtenSize(opened);
+			region = opened.map(MapMode.READ_WRITE, start, REGION_SIZE);
+			regionStart = start;
+		} catch (IOException ex)
+		{
+			opened.close();
+			throw ex;
+		}
+		channel = opened;
+		openedAt = time;
+		nextRollover = nextRollover(time);
+	}
+
+	/**
+	 * Cuts off the padding of the current file and closes it.
+	 *
+	 * @return the number of bytes written to the file
+	 */
+	private long closeFile() throws IOException
+	{
+		long length = position();
+		FileChannel closing = channel;
+		MappedByteBuffer mapped = region;
+		region = null;
+		channel = null;
+		try
+		{
+			mapped.force();
+			closing.truncate(length);
+		} catch (IOException ex)
+		{
+			// some platforms refuse to truncate a mapped file, the padding is cut
+			// off when the file is reopened or archived
+		} finally
+		{
+			closing.close();
+		}
+		return length;
+	}
+
+	/**
+	 * Closes the current file, moves it to an archive and opens a new file.<br>
+	 * If the file cannot be moved it is reopened, the rollover is retried after
+	 * {@link #RETRY_INTERVAL}.
+	 *
+	 * @param time the time of the entry that caused the rollover
+	 */
+	private void rollover(long time) throws IOException
+	{
+		long length = closeFile();
+		if (length > 0)
+		{
+			Path archive = archiveOf(openedAt);
+			try
+			{
+				Files.move(file, archive);
+				archiver.execute(() -> archive(archive, length));
+			} catch (IOException ex)
+			{
+				retryAt = time + RETRY_INTERVAL;
+				reportError("Cannot archive " + file, ex);
+			}
+		}
+		open(time);
+	}
+
+	/**
+	 * @param time the time the archived file has been opened
+	 * @return a path for the archive of the log file that is not taken yet
+	 */
+	private Path archiveOf(long time)
+	{
+		ZoneId zone = ZoneId.systemDefault();
+		while (true)
+		{
+			String name = file.getFileName() + "." + ARCHIVE_STAMP.format(Instant.ofEpochMilli(time).atZone(zone));
+			Path archive = file.resolveSibling(name);
+			if (!Files.exists(archive) && !Files.exists(file.resolveSibling(name + GZIP_SUFFIX)))
+				return archive;
+			time++;
+		}
+	}
+
+	/**
+	 * Compresses the given archive if enabled and deletes the archives that
+	 * exceed the retention limits. Runs on the archive thread.
+	 *
+	 * @param archive the archive
+	 * @param length  the number of bytes written to the archive
+	 */
+	private void archive(Path archive, long length)
+	{
+		try
+		{
+			if (compress)
+				compress(archive, length);
+			else if (Files.size(archive) > length)
+				try (FileChannel ch = FileChannel.open(archive, StandardOpenOption.WRITE))
+				{
+					ch.truncate(length);
+				}
+			enforceRetention();
+		} catch (IOException ex)
+		{
+			reportError("Cannot archive " + archive, ex);
+		}
+	}
+
+	/**
+	 * Replaces the given archive with a gzip compressed copy of its first
+	 * <code>length</code> bytes.
+	 */
+	private static void compress(Path archive, long length) throws IOException
+	{
+		Path compressed = archive.resolveSibling(archive.getFileName() + GZIP_SUFFIX);
+		Path temp = archive.resolveSibling(compressed.getFileName() + TEMP_SUFFIX);
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(archive);
+				OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), buffer.length))
+		{
+			long remaining = length;
+			int read;
+			while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) > 0)
+			{
+				out.write(buffer, 0, read);
+				remaining -= read;
+			}
+		}
+		Files.move(temp, compressed, StandardCopyOption.REPLACE_EXISTING);
+		Files.delete(archive);
+	}
+
+	/**
+	 * Deletes the oldest archives until at most {@link #getMaxArchivedFiles()}
+	 * archives with a total size of at most {@link #getMaxArchivedBytes()} are
+	 * left.
+	 */
+	private void enforceRetention() throws IOException
+	{
+		List<Path> archives = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(file.getParent()))
+		{
+			for (Path path : stream)
+				if (archivePattern.matcher(path.getFileName().toString()).matches())
+					archives.add(path);
+		}
+		// the names sort chronologically, newest first
+		archives.sort(Collections.reverseOrder());
+
+		int count = 0;
+		long bytes = 0;
+		for (Path archive : archives)
+		{
+			bytes += Files.size(archive);
+			if (++count > maxArchivedFiles || bytes > maxArchivedBytes)
+				Files.deleteIfExists(archive);
+		}
+	}
+
+	/**
+	 * @param time the time a file has been opened
+	 * @return the time the file is to be rolled over
+	 */
+	private long nextRollover(long time)
+	{
+		long interval = rolloverInterval;
+		if (interval <= 0)
+			return Long.MAX_VALUE;
+		// align to the local time, so daily files start at midnight
+		long offset = ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochMilli(time)).getTotalSeconds()
+				* 1000L;
+		return Math.floorDiv(time + offset, interval) * interval + interval - offset;
+	}
+
+	/**
+	 * Finds the end of the written data of a file that might still be padded
+	 * with zeros because it was not closed properly.
+	 *
+	 * @param channel the channel of the file
+	 * @return the size of the file without the trailing zeros
+	 */
+	private static long writtenSize(FileChannel channel) throws IOException
+	{
+		long size = channel.size();
+		ByteBuffer block = ByteBuffer.allocate(8192);
+		while (size > 0)
+		{
+			int length = (int) Math.min(block.capacity(), size);
+			long start = size - length;
+			block.clear().limit(length);
+			while (block.hasRemaining() && channel.read(block, start + block.position()) >= 0)
+				;
+			for (int i = block.position() - 1; i >= 0; i--)
+				if (block.get(i) != 0)
+					return start + i + 1;
+			size = start;
+		}
+		return 0;
+	}
+
+	/**
+	 * Forces the written entries to the storage device.
+	 */
+	@Override
+	public synchronized void flush()
+	{
+		if (region != null)
+			region.force();
+	}
+
+	/**
+	 * Closes the log file and waits for pending archives to be compressed.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (this)
+		{
+			if (closed)
+				return;
+			closed = true;
+			if (region != null)
+			{
+				try
+				{
+					closeFile();
+				} catch (IOException ex)
+				{
+					reportError("Cannot close " + file, ex);
+				}
+			}
+		}
+		archiver.shutdown();
+		try
+		{
+			archiver.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sets the size at which the file is rolled over. The file is rolled over
+	 * before the first entry that is logged after it reached this size.
+	 *
+	 * @param maxFileSize the maximum size in bytes
+	 */
+	public void setMaxFileSize(long maxFileSize)
+	{
+		if (maxFileSize <= 0)
+			throw new IllegalArgumentException("Maximum file size must be positive: " + maxFileSize);
+		this.maxFileSize = maxFileSize;
+	}
+
+	/**
+	 * @return the size at which the file is rolled over
+	 */
+	public long getMaxFileSize()
+	{ return this.maxFileSize; }
+
+	/**
+	 * Sets the time after which the file is rolled over. Rollovers are aligned
+	 * to the local time, an interval of one day rolls the file over at midnight.
+	 *
+	 * @param interval the rollover interval, 0 to only roll over by size
+	 * @param unit     the unit of <code>interval</code>
+	 */
+	public synchronized void setRolloverInterval(long interval, TimeUnit unit)
+	{
+		ObjectUtils.isNullThrow(unit);
+		this.rolloverInterval = Math.max(0, unit.toMillis(interval));
+		this.nextRollover = nextRollover(openedAt);
+	}
+
+	/**
+	 * @return the rollover interval in milliseconds, 0 if the file is only rolled
+	 *         over by size
+	 */
+	public long getRolloverInterval()
+	{ return this.rolloverInterval; }
+
+	/**
+	 * Sets the number of archives that are kept, older archives are deleted.
+	 *
+	 * @param maxArchivedFiles the maximum number of archives
+	 */
+	public void setMaxArchivedFiles(int maxArchivedFiles)
+	{
+		if (maxArchivedFiles < 0)
+			throw new IllegalArgumentException("Maximum archived files must not be negative: " + maxArchivedFiles);
+		this.maxArchivedFiles = maxArchivedFiles;
+	}
+
+	/**
+	 * @return the number of archives that are kept
+	 */
+	public int getMaxArchivedFiles()
+	{ return this.maxArchivedFiles; }
+
+	/**
+	 * Sets the total size of the archives that are kept, the oldest archives
+	 * are deleted until they fit.
+	 *
+	 * @param maxArchivedBytes the maximum total size in bytes
+	 */
+	public void setMaxArchivedBytes(long maxArchivedBytes)
+	{
+		if (maxArchivedBytes < 0)
+			throw new IllegalArgumentException("Maximum archived bytes must not be negative: " + maxArchivedBytes);
+		this.maxArchivedBytes = maxArchivedBytes;
+	}
+
+	/**
+	 * @return the total size of the archives that are kept
+	 */
+	public long getMaxArchivedBytes()
+	{ return this.maxArchivedBytes; }
+
+	/**
+	 * Enables or disables the compression of archives, enabled by default.
+	 *
+	 * @param compress true to compress archives with gzip
+	 */
+	public void setCompress(boolean compress)
+	{
+		this.compress = compress;
+	}
+
+	/**
+	 * @return true if archives are compressed with gzip
+	 */
+	public boolean isCompress()
+	{ return this.compress; }
+
+	/**
+	 * @return the log file
+	 */
+	public Path getFile()
+	{ return this.file; }
+}
@@ -20,6 +20,21 @@ public abstract class LogFormatter
 	 */
 	public abstract String formatLogEntry(LogEntry entry);
 
+	/**
+	 * Formats the given {@link LogEntry} into the given {@link StringBuilder}.<br>
+	 * Handlers call this method with a reused builder. The default
+	 * implementation appends the result of {@link #formatLogEntry(LogEntry)},
+	 * formatters should override it to append directly, so formatting an entry
+	 * does not allocate anything.
+	 * 
+	 * @param entry the entry to format
+	 * @param out   the builder to append the formatted entry to
+	 */
+	public void formatLogEntry(LogEntry entry, StringBuilder out)
+	{
+		out.append(formatLogEntry(entry));
+	}
+
 	/**
 	 * This method is called upon initialization of this formatter and its
 	 * corresponding LogHandler. <br>
@@ -38,4 +53,27 @@ public abstract class LogFormatter
 	 */
 	public abstract String getTail();
 
+	/**
+	 * Tells the logger whether this formatter prints the source location of an
+	 * entry.<br>
+	 * Capturing the location costs a stack walk per log call, so it is only done
+	 * if an active formatter returns true here.
+	 * 
+	 * @return true if {@link LogEntry#getSourceClassName()} and friends are used,
+	 *         false by default
+	 */
+	public boolean requiresLocation()
+	{
+		return false;
+	}
+
+	/**
+	 * Must be called by sub classes whenever the result of
+	 * {@link #requiresLocation()} changes, so the loggers pick up the change.
+	 */
+	protected final void locationRequirementChanged()
+	{
+		LogHandler.configChanged();
+	}
+
 }
@@ -1,8 +1,5 @@
 package at.flockenberger.flocklib.flocklog;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
 /**
  * <h1>LogDefaultFormatter</h1><br>
  * The default formatter used by the {@link FlockLogger}.
@@ -20,29 +17,32 @@ public class LogGlobalFormatter extends LogFormatter
 	public String formatLogEntry(LogEntry entry)
 	{
 		StringBuilder sb = new StringBuilder();
-		sb.append(entry.message);
-		sb.append(System.lineSeparator());
+		formatLogEntry(entry, sb);
 		return sb.toString();
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void formatLogEntry(LogEntry entry, StringBuilder sb)
+	{
+		entry.appendMessage(sb);
+		entry.appendFields(sb);
+		sb.append(LogDefaultFormatter.LINE_SEPARATOR);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public String getHead()
-	{ return "LOG STARTED " + calcDate(System.currentTimeMillis()); }
+	{ return "LOG STARTED " + LogDefaultFormatter.DATE_FORMAT.format(System.currentTimeMillis()); }
 
 	/**
 	 * {@inheritDoc}
 	 */
 	@Override
 	public String getTail()
-	{ return "LOG STOPPED " + calcDate(System.currentTimeMillis()); }
-
-	private String calcDate(long millisecs)
-	{
-		SimpleDateFormat date_format = new SimpleDateFormat("dd.mm.yyyy HH:mm:ss");
-		Date resultdate = new Date(millisecs);
-		return date_format.format(resultdate);
-	}
+	{ return "LOG STOPPED " + LogDefaultFormatter.DATE_FORMAT.format(System.currentTimeMillis()); }
 }
@@ -1,5 +1,8 @@
 package at.flockenberger.flocklib.flocklog;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import at.flockenberger.flocklib.flockutil.ObjectUtils;
 
 /**
@@ -12,8 +15,21 @@ import at.flockenberger.flocklib.flockutil.ObjectUtils;
 public abstract class LogHandler
 {
 
+	/**
+	 * incremented on every change of a handler or formatter setting that affects
+	 * which entries are created, loggers recompute their effective level when it
+	 * changes
+	 */
+	private static final AtomicInteger CONFIG_VERSION = new AtomicInteger();
+
 	private volatile LogFormatter formatter = new LogDefaultFormatter();
 	private volatile LogLevel logLevel = LogLevel.ALL;
+	private volatile boolean captureLocation = false;
+
+	/**
+	 * the number of errors reported by this handler
+	 */
+	private final AtomicLong errors = new AtomicLong();
 
 	/**
 	 * Called when a {@link LogEntry} should be logged.
@@ -42,10 +58,12 @@ public abstract class LogHandler
 		if (ObjectUtils.isNull(lvl))
 			return;
 		this.logLevel = lvl;
+		configChanged();
 	}
 
 	/**
-	 * @return the logging level
+	 * @return the logging level, a handler that wraps another handler may return
+	 *         a stricter level than the one set
 	 */
 	public LogLevel getLevel()
 	{ return this.logLevel; }
@@ -60,6 +78,7 @@ public abstract class LogHandler
 		if (ObjectUtils.isNull(frmt))
 			return;
 		this.formatter = frmt;
+		configChanged();
 	}
 
 	/**
@@ -68,6 +87,66 @@ public abstract class LogHandler
 	public LogFormatter getFormatter()
 	{ return this.formatter; }
 
+	/**
+	 * Enables or disables the capture of the source location for every entry
+	 * this handler logs, regardless of its formatter.
+	 * 
+	 * @param captureLocation true to always capture the source location
+	 */
+	public void setCaptureLocation(boolean captureLocation)
+	{
+		this.captureLocation = captureLocation;
+		configChanged();
+	}
+
+	/**
+	 * @return true if this handler needs the source location of its entries,
+	 *         either because it was asked to capture it or because its
+	 *         formatter prints it
+	 */
+	public boolean requiresLocation()
+	{
+		return this.captureLocation || this.formatter.requiresLocation();
+	}
+
+	/**
+	 * Reports an error of this handler, e.g. a failed write.<br>
+	 * A handler cannot log its own errors, it might be the one that fails. Every
+	 * error is counted, only the first one is printed to {@link System#err}.
+	 * Subclasses may override this method to report errors elsewhere.
+	 * 
+	 * @param message describes what failed
+	 * @param ex      the cause of the error
+	 */
+	protected void reportError(String message, Exception ex)
+	{
+		if (errors.getAndIncrement() != 0)
+			return;
+		System.err.println(getClass().getSimpleName() + ": " + message);
+		if (ex != null)
+			ex.printStackTrace();
+	}
+
+	/**
+	 * @return the number of errors this handler has reported
+	 */
+	public long getErrorCount()
+	{ return this.errors.get(); }
+
+	/**
+	 * Marks the configuration of all handlers as changed.
+	 */
+	static void configChanged()
+	{
+		CONFIG_VERSION.incrementAndGet();
+	}
+
+	/**
+	 * @return the current configuration version of all handlers
+	 */
+	static int getConfigVersion()
+	{ return CONFIG_VERSION.get(); }
+
 	/**
 	 * Called to check whether this {@link LogEntry} should be logged based on the
 	 * current logging level.
@@ -77,7 +156,7 @@ public abstract class LogHandler
 	 */
 	boolean shouldLog(LogEntry entry)
 	{
-		final int llevl = logLevel.getIntLevel();
+		final int llevl = getLevel().getIntLevel();
 		if (entry.level.getIntLevel() <= llevl)
 			return true;
 
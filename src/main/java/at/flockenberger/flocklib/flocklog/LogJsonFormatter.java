@@ -0,0 +1,290 @@
+package at.flockenberger.flocklib.flocklog;
+
+import java.time.ZoneOffset;
+
+/**
+ * <h1>LogJsonFormatter</h1><br>
+ * Formats every {@link LogEntry} as one line of JSON, e.g.
+ *
+ * <pre>
+ * {"time":"2026-10-18T08:41:13.328Z","level":"INFO","logger":"app","message":"request done","context":{"requestId":"42"},"fields":{"status":200}}
+ * </pre>
+ *
+ * The {@link LogContext} of the logging thread is written as
+ * <code>context</code>, the {@link LogField}s of the entry as
+ * <code>fields</code>, both are left out if they are empty. Numbers and
+ * booleans are written as JSON values, everything else as a string.<br>
+ * The JSON is written straight into the output buffer, no intermediate
+ * objects are created.
+ *
+ * @author Florian Wagner
+ *
+ */
+public class LogJsonFormatter extends LogFormatter
+{
+	/**
+	 * the format of the time stamps up to the seconds, milliseconds are
+	 * appended separately
+	 */
+	private static final LogTimeFormat TIME_FORMAT = new LogTimeFormat("yyyy-MM-dd'T'HH:mm:ss", ZoneOffset.UTC);
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * flag to write the source location of every entry
+	 */
+	private volatile boolean printLocation = false;
+
+	/**
+	 * Enables or disables writing the source location of every entry as
+	 * <code>source</code>.<br>
+	 * Writing the location makes the logger capture it on every log call.
+	 *
+	 * @param printLocation true to write the class, method and line of the log
+	 *                      call
+	 */
+	public void setPrintLocation(boolean printLocation)
+	{
+		this.printLocation = printLocation;
+		locationRequirementChanged();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean requiresLocation()
+	{
+		return this.printLocation;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String formatLogEntry(LogEntry entry)
+	{
+		StringBuilder sb = new StringBuilder();
+		formatLogEntry(entry, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void formatLogEntry(LogEntry entry, StringBuilder sb)
+	{
+		sb.append("{\"time\":\"");
+		TIME_FORMAT.formatTo(entry.timeStamp, sb);
+		int millis = (int) Math.floorMod(entry.timeStamp, 1000L);
+		sb.append('.');
+		sb.append((char) ('0' + millis / 100));
+		sb.append((char) ('0' + millis / 10 % 10));
+		sb.append((char) ('0' + millis % 10));
+		sb.append("Z\",\"level\":\"");
+		sb.append(entry.level.name());
+		sb.append("\",\"logger\":");
+		appendString(entry.loggerName, sb);
+		sb.append(",\"message\":\"");
+		int start = sb.length();
+		entry.appendMessage(sb);
+		escapeFrom(start, sb);
+		sb.append('"');
+
+		if (printLocation && entry.hasSource())
+		{
+			sb.append(",\"source\":{\"class\":");
+			appendString(entry.sourceClassName, sb);
+			sb.append(",\"method\":");
+			appendString(entry.sourceMethodName, sb);
+			sb.append(",\"line\":");
+			sb.append(entry.sourceLineNumber);
+			sb.append('}');
+		}
+
+		String[] context = entry.context;
+		if (context != null)
+		{
+			sb.append(",\"context\":{");
+			for (int i = 0; i < context.length; i += 2)
+			{
+				if (i > 0)
+					sb.append(',');
+				appendString(context[i], sb);
+				sb.append(':');
+				appendString(context[i + 1], sb);
+			}
+			sb.append('}');
+		}
+
+		LogField[] fields = entry.fields;
+		if (fields != null)
+		{
+			sb.append(",\"fields\":{");
+			for (int i = 0; i < fields.length; i++)
+			{
+				if (i > 0)
+					sb.append(',');
+				appendString(fields[i].getKey(), sb);
+				sb.append(':');
+				appendValue(fields[i].getValue(), sb);
+			}
+			sb.append('}');
+		}
+		sb.append('}');
+		sb.append(LogDefaultFormatter.LINE_SEPARATOR);
+	}
+
+	/**
+	 * Appends a value as a JSON number, boolean, null or string.
+	 */
+	private static void appendValue(Object value, StringBuilder sb)
+	{
+		if (value == null)
+		{
+			sb.append("null");
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short
+				|| value instanceof Byte)
+		{
+			sb.append(((Number) value).longValue());
+		} else if (value instanceof Double || value instanceof Float)
+		{
+			double d = ((Number) value).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d))
+			{
+				sb.append('"');
+				sb.append(d);
+				sb.append('"');
+			} else if (value instanceof Float)
+			{
+				sb.append(((Float) value).floatValue());
+			} else
+			{
+				sb.append(d);
+			}
+		} else if (value instanceof Boolean)
+		{
+			sb.append(((Boolean) value).booleanValue());
+		} else if (value instanceof String)
+		{
+			appendString((String) value, sb);
+		} else
+		{
+			sb.append('"');
+			int start = sb.length();
+			LogEntry.appendArgument(value, sb);
+			escapeFrom(start, sb);
+			sb.append('"');
+		}
+	}
+
+	/**
+	 * Appends a quoted and escaped JSON string.
+	 */
+	private static void appendString(String value, StringBuilder sb)
+	{
+		if (value == null)
+		{
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		int length = value.length();
+		int i = 0;
+		while (i < length && !needsEscape(value.charAt(i)))
+			i++;
+		if (i == length)
+		{
+			sb.append(value);
+		} else
+		{
+			sb.append(value, 0, i);
+			escape(value, i, sb);
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Escapes the characters from <code>start</code> to the end of the builder
+	 * in place. Text without characters that need escaping is left as it is
+	 * without copying it.
+	 */
+	private static void escapeFrom(int start, StringBuilder sb)
+	{
+		int length = sb.length();
+		int i = start;
+		while (i < length && !needsEscape(sb.charAt(i)))
+			i++;
+		if (i == length)
+			return;
+
+		String rest = sb.substring(i);
+		sb.setLength(i);
+		escape(rest, 0, sb);
+	}
+
+	/**
+	 * Appends the characters of <code>text</code> from <code>start</code>
+	 * escaped.
+	 */
+	private static void escape(String text, int start, StringBuilder sb)
+	{
+		for (int j = start; j < text.length(); j++)
+		{
+			char c = text.charAt(j);
+			if (!needsEscape(c))
+			{
+				sb.append(c);
+				continue;
+			}
+			sb.append('\\');
+			switch (c)
+			{
+			case '"':
+			case '\\':
+				sb.append(c);
+				break;
+			case '\n':
+				sb.append('n');
+				break;
+			case '\r':
+				sb.append('r');
+				break;
+			case '\t':
+				sb.append('t');
+				break;
+			case '\b':
+				sb.append('b');
+				break;
+			case '\f':
+				sb.append('f');
+				break;
+			default:
+				sb.append("u00");
+				sb.append(HEX[c >> 4]);
+				sb.append(HEX[c & 0xF]);
+				break;
+			}
+		}
+	}
+
+	private static boolean needsEscape(char c)
+	{
+		return c < 0x20 || c == '"' || c == '\\';
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getHead()
+	{ return ""; }
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getTail()
+	{ return ""; }
+}
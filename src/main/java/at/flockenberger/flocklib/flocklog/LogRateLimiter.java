@@ -0,0 +1,377 @@
+package at.flockenberger.flocklib.flocklog;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
+
+/**
+ * <h1>LogRateLimiter</h1><br>
+ * Limits how often the same message is logged, see
+ * {@link FlockLogger#setRateLimiter(LogRateLimiter)}.<br>
+ * Every message has a token bucket that allows a burst of <code>permits</code>
+ * entries and refills at <code>permits</code> per <code>period</code>. Messages
+ * are told apart by their logger, level and text, for a parameterized message
+ * the format is used, so every call site of a parameterized message has a
+ * bucket of its own, whatever its arguments are.<br>
+ * Entries beyond the limit are dropped and counted. Once the next entry of the
+ * message passes, a summary like
+ * <code>"Connection to {} lost" repeated 12,345 times in 10s</code> is logged
+ * before it.<br>
+ * If the messages stop, the summary is logged by a background thread at most
+ * one period later.<br>
+ * The buckets are kept in a fixed table of slots. The hash of a message selects
+ * a set of {@value #WAYS} slots, the message may use any of them. A slot is
+ * only taken over by another message once the bucket in it is idle, that is
+ * full again, so a message that is being limited keeps its bucket. The summary
+ * of the message a slot held is logged right away. If all slots of a set are
+ * busy, a new message is not limited and counted by
+ * {@link #getUntrackedCount()}, the table should be made larger then. Checking
+ * a message takes no lock and does not allocate once its bucket exists.
+ *
+ * @author Florian Wagner
+ *
+ */
+public final class LogRateLimiter
+{
+	/**
+	 * the default number of slots
+	 */
+	public static final int DEFAULT_SLOTS = 1024;
+
+	/**
+	 * the number of slots a message can be kept in
+	 */
+	public static final int WAYS = 4;
+
+	/**
+	 * the scheduler of the timed flushes of all limiters, cancelled flushes are
+	 * removed from its queue right away
+	 */
+	private static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+	/**
+	 * the time it takes to refill one permit
+	 */
+	private final long intervalNanos;
+
+	/**
+	 * how far the bucket may run ahead of the current time, that is the size of
+	 * the burst beyond the first permit
+	 */
+	private final long toleranceNanos;
+
+	private final AtomicReferenceArray<Bucket> slots;
+	private final int mask;
+
+	/**
+	 * the number of dropped entries
+	 */
+	private final LongAdder suppressed;
+
+	/**
+	 * the number of entries that were not limited because all slots of their
+	 * set were busy
+	 */
+	private final LongAdder untracked;
+
+	/**
+	 * Creates a new {@link LogRateLimiter} with {@value #DEFAULT_SLOTS} slots.
+	 *
+	 * @param permits the number of entries of the same message that are logged
+	 *                per period, also the size of a burst
+	 * @param period  the length of the period
+	 * @param unit    the unit of <code>period</code>
+	 */
+	public LogRateLimiter(int permits, long period, TimeUnit unit)
+	{
+		this(permits, period, unit, DEFAULT_SLOTS);
+	}
+
+	/**
+	 * Creates a new {@link LogRateLimiter}.
+	 *
+	 * @param permits the number of entries of the same message that are logged
+	 *                per period, also the size of a burst
+	 * @param period  the length of the period
+	 * @param unit    the unit of <code>period</code>
+	 * @param slots   the number of messages that are tracked at the same time,
+	 *                rounded up to a power of two and at least {@value #WAYS}
+	 */
+	public LogRateLimiter(int permits, long period, TimeUnit unit, int slots)
+	{
+		ObjectUtils.isNullThrow(unit);
+		if (permits <= 0)
+			throw new IllegalArgumentException("Permits must be positive: " + permits);
+		if (period <= 0)
+			throw new IllegalArgumentException("Period must be positive: " + period);
+		if (slots <= 0 || slots > 1 << 30)
+			throw new IllegalArgumentException("Slots must be between 1 and 2^30: " + slots);
+
+		this.intervalNanos = Math.max(1, unit.toNanos(period) / permits);
+		this.toleranceNanos = this.intervalNanos * (permits - 1);
+		int size = Integer.highestOneBit(slots);
+		if (size < slots)
+			size <<= 1;
+		size = Math.max(size, WAYS);
+		this.slots = new AtomicReferenceArray<Bucket>(size);
+		this.mask = size - WAYS;
+		this.suppressed = new LongAdder();
+		this.untracked = new LongAdder();
+
+		long periodNanos = unit.toNanos(period);
+		TimedFlush task = new TimedFlush(this);
+		task.future = SCHEDULER.scheduleWithFixedDelay(task, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private static ScheduledExecutorService createScheduler()
+	{
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "FlockLog-RateLimiter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+
+	/**
+	 * Takes a permit for a message.
+	 *
+	 * @param logger the logger of the message
+	 * @param lvl    the level of the message
+	 * @param key    the format or the text of the message
+	 * @return true if the message is to be logged
+	 */
+	boolean acquire(FlockLogger logger, LogLevel lvl, String key)
+	{
+		if (key == null)
+			return true;
+
+		long now = System.nanoTime();
+		Bucket bucket = bucketOf(logger, lvl, key, now);
+		if (bucket == null)
+		{
+			untracked.increment();
+			return true;
+		}
+
+		if (bucket.tryAcquire(now, intervalNanos, toleranceNanos))
+		{
+			bucket.report(now);
+			return true;
+		}
+		bucket.suppress(now);
+		suppressed.increment();
+		return false;
+	}
+
+	/**
+	 * Finds the bucket of a message in its set, or puts a new bucket into a free
+	 * or idle slot of the set.
+	 *
+	 * @return the bucket or null if all slots of the set are busy
+	 */
+	private Bucket bucketOf(FlockLogger logger, LogLevel lvl, String key, long now)
+	{
+		int hash = key.hashCode() * 31 + lvl.ordinal();
+		int set = (hash ^ (hash >>> 16)) & mask;
+		for (int i = set; i < set + WAYS; i++)
+		{
+			Bucket bucket = slots.get(i);
+			if (bucket != null && bucket.matches(logger, lvl, key))
+				return bucket;
+		}
+
+		Bucket created = null;
+		for (int i = set; i < set + WAYS; i++)
+		{
+			Bucket bucket = slots.get(i);
+			if (bucket != null && !bucket.isIdle(now))
+				continue;
+			if (created == null)
+				created = new Bucket(logger, lvl, key, now);
+			if (slots.compareAndSet(i, bucket, created))
+			{
+				if (bucket != null)
+					bucket.report(now);
+				return created;
+			}
+			// another thread took the slot, it may have been this message
+			bucket = slots.get(i);
+			if (bucket != null && bucket.matches(logger, lvl, key))
+				return bucket;
+		}
+		return null;
+	}
+
+	/**
+	 * Logs the summaries of all messages that have dropped entries.<br>
+	 * This is done once per period by a background thread anyway, call it to log
+	 * them right away, e.g. before the application exits.
+	 */
+	public void flush()
+	{
+		flush(null);
+	}
+
+	/**
+	 * Logs the summaries of the messages of the given logger that have dropped
+	 * entries.
+	 *
+	 * @param logger the logger or null for all loggers
+	 */
+	void flush(FlockLogger logger)
+	{
+		long now = System.nanoTime();
+		for (int i = 0; i < slots.length(); i++)
+		{
+			Bucket bucket = slots.get(i);
+			if (bucket != null && (logger == null || bucket.logger == logger))
+				bucket.report(now);
+		}
+	}
+
+	/**
+	 * @return the total number of entries that have been dropped
+	 */
+	public long getSuppressedCount()
+	{ return suppressed.sum(); }
+
+	/**
+	 * @return the number of entries that have been logged without a limit
+	 *         because all slots of their set were taken by other messages
+	 */
+	public long getUntrackedCount()
+	{ return untracked.sum(); }
+
+	/**
+	 * The timed flush of a limiter.<br>
+	 * The shared scheduler only holds the limiter weakly, so a limiter that is no
+	 * longer used can be collected, its flush cancels itself afterwards.
+	 */
+	private static final class TimedFlush implements Runnable
+	{
+		final WeakReference<LogRateLimiter> limiter;
+		volatile ScheduledFuture<?> future;
+
+		TimedFlush(LogRateLimiter limiter)
+		{
+			this.limiter = new WeakReference<LogRateLimiter>(limiter);
+		}
+
+		@Override
+		public void run()
+		{
+			LogRateLimiter limiter = this.limiter.get();
+			if (limiter != null)
+			{
+				limiter.flush();
+				return;
+			}
+			ScheduledFuture<?> future = this.future;
+			if (future != null)
+				future.cancel(false);
+		}
+	}
+
+	/**
+	 * The token bucket of one message, kept as the time at which the bucket
+	 * will be full again (GCRA).
+	 */
+	private static final class Bucket
+	{
+		final FlockLogger logger;
+		final LogLevel level;
+		final String key;
+
+		/**
+		 * the theoretical arrival time of the next permit
+		 */
+		final AtomicLong tat;
+
+		/**
+		 * the number of entries dropped since the last summary, striped so
+		 * threads that hit the same message do not contend
+		 */
+		final LongAdder suppressed;
+
+		/**
+		 * the time the first entry since the last summary was dropped, 0 if none
+		 * was dropped, reset by the thread that claims the summary
+		 */
+		final AtomicLong firstSuppressed;
+
+		Bucket(FlockLogger logger, LogLevel level, String key, long now)
+		{
+			this.logger = logger;
+			this.level = level;
+			this.key = key;
+			this.tat = new AtomicLong(now);
+			this.suppressed = new LongAdder();
+			this.firstSuppressed = new AtomicLong();
+		}
+
+		boolean matches(FlockLogger logger, LogLevel level, String key)
+		{
+			return this.logger == logger && this.level == level && this.key.equals(key);
+		}
+
+		/**
+		 * @return true if the bucket is full again, so it can be replaced by a
+		 *         fresh bucket of another message without changing how either
+		 *         message is limited
+		 */
+		boolean isIdle(long now)
+		{
+			return tat.get() - now <= 0;
+		}
+
+		boolean tryAcquire(long now, long interval, long tolerance)
+		{
+			while (true)
+			{
+				long current = tat.get();
+				long base = current - now > 0 ? current : now;
+				if (base - now > tolerance)
+					return false;
+				if (tat.compareAndSet(current, base + interval))
+					return true;
+			}
+		}
+
+		/**
+		 * Counts a dropped entry.<br>
+		 * The entry is counted before the start of the summary is set. A summary
+		 * that is claimed in between either includes the entry or is claimed
+		 * before the start is set again, so no entry is left without a summary.
+		 */
+		void suppress(long now)
+		{
+			suppressed.increment();
+			if (firstSuppressed.get() == 0)
+				firstSuppressed.compareAndSet(0, now);
+		}
+
+		/**
+		 * Logs the summary of the dropped entries, if there are any.<br>
+		 * Only the thread that resets the start of the summary logs it, so a
+		 * summary is never logged twice.
+		 */
+		void report(long now)
+		{
+			long first = firstSuppressed.get();
+			if (first == 0 || !firstSuppressed.compareAndSet(first, 0))
+				return;
+			long count = suppressed.sumThenReset();
+			if (count > 0)
+				logger.logSuppressed(level, key, count, now - first);
+		}
+	}
+}
@@ -1,24 +1,43 @@
 package at.flockenberger.flocklib.flocklog;
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 import at.flockenberger.flocklib.flockutil.ObjectUtils;
 
 /**
  * <h1>LogStreamHandler</h1><br>
  * The LogStreamHandler class is responsible for logging into streams, this can
- * be file streams or just {@link PrintStream} etc.
- * 
+ * be file streams or just {@link PrintStream} etc.<br>
+ * Entries are formatted into a reused per-thread {@link StringBuilder} and
+ * encoded straight into a reused byte buffer, which is written to the stream
+ * when it is full or the handler is flushed. Once the buffers have grown to the
+ * size of the largest entry, handling an entry does not allocate anything.<br>
+ * The log call itself still allocates: every call creates a {@link LogEntry}
+ * and a parameterized call also creates the argument array and boxes
+ * primitive arguments.
+ *
  * @author Florian Wagner
  *
  */
 public class LogStreamHandler extends LogHandler
 {
-	private OutputStream output;
-	private volatile Writer writer;
+	/**
+	 * the initial size of the character and byte buffers
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	private volatile OutputStream output;
+	private CharsetEncoder encoder;
+	private CharBuffer chars;
+	private ByteBuffer bytes;
 
 	public LogStreamHandler()
 	{
@@ -28,7 +47,7 @@ public class LogStreamHandler extends LogHandler
 	public LogStreamHandler(OutputStream ops, LogFormatter logfrom)
 	{
 		setFormatter(logfrom);
-
+		setOutputStream(ops);
 	}
 
 	/**
@@ -37,28 +56,77 @@ public class LogStreamHandler extends LogHandler
 	@Override
 	public void log(LogEntry entry)
 	{
-		if (writer == null || entry == null)
+		if (output == null || entry == null)
 		{ return; }
 		if (!shouldLog(entry))
 		{ return; }
-		String msg;
+		StringBuilder sb = LogBuffers.acquire();
 		try
 		{
-			msg = getFormatter().formatLogEntry(entry);
-		} catch (Exception ex)
+			try
+			{
+				getFormatter().formatLogEntry(entry, sb);
+			} catch (Exception ex)
+			{
+				return;
+			}
+			write(sb);
+		} finally
 		{
+			LogBuffers.release(sb);
+		}
+	}
+
+	/**
+	 * Encodes the given text and appends it to the buffer of this handler.<br>
+	 * The buffer is written to the stream whenever it is full.
+	 *
+	 * @param text the text to write
+	 */
+	protected synchronized void write(StringBuilder text)
+	{
+		if (output == null)
 			return;
+
+		int length = text.length();
+		if (chars.capacity() < length)
+		{
+			int capacity = chars.capacity();
+			while (capacity < length)
+				capacity <<= 1;
+			chars = CharBuffer.allocate(capacity);
 		}
+		chars.clear();
+		text.getChars(0, length, chars.array(), 0);
+		chars.limit(length);
 
 		try
 		{
-			writer.write(msg);
-		} catch (Exception ex)
+			encoder.reset();
+			CoderResult result;
+			while ((result = encoder.encode(chars, bytes, true)).isOverflow())
+				drain();
+			while (encoder.flush(bytes).isOverflow())
+				drain();
+			if (result.isError())
+				result.throwException();
+		} catch (IOException ex)
 		{
 			return;
 		}
 	}
 
+	/**
+	 * Writes the buffered bytes to the stream.
+	 */
+	private void drain() throws IOException
+	{
+		if (bytes.position() == 0)
+			return;
+		output.write(bytes.array(), 0, bytes.position());
+		bytes.clear();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -74,11 +142,12 @@ public class LogStreamHandler extends LogHandler
 	@Override
 	public synchronized void flush()
 	{
-		if (writer != null)
+		if (output != null)
 		{
 			try
 			{
-				writer.flush();
+				drain();
+				output.flush();
 			} catch (Exception ex)
 			{
 				return;
@@ -89,16 +158,16 @@ public class LogStreamHandler extends LogHandler
 
 	protected synchronized void flushAndClose()
 	{
-		if (writer != null)
+		if (output != null)
 		{
 			try
 			{
-				writer.flush();
-				writer.close();
+				drain();
+				output.flush();
+				output.close();
 			} catch (Exception ex)
 			{
 			}
-			writer = null;
 			output = null;
 		}
 	}
@@ -108,8 +177,11 @@ public class LogStreamHandler extends LogHandler
 		if (ObjectUtils.isNull(out))
 			return;
 		flushAndClose();
+		encoder = Charset.defaultCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		chars = CharBuffer.allocate(BUFFER_SIZE);
+		bytes = ByteBuffer.allocate(BUFFER_SIZE);
 		output = out;
-		writer = new OutputStreamWriter(output);
 	}
 
 }
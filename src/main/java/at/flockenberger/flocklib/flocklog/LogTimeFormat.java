@@ -0,0 +1,100 @@
+package at.flockenberger.flocklib.flocklog;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import at.flockenberger.flocklib.flockutil.ObjectUtils;
+
+/**
+ * <h1>LogTimeFormat</h1><br>
+ * Formats time stamps for log entries with a {@link DateTimeFormatter}.<br>
+ * The pattern must not contain anything finer than seconds. The text of the
+ * last formatted second is cached, so formatting the many entries that are
+ * logged within the same second does not allocate anything.<br>
+ * A LogTimeFormat is thread safe.
+ * 
+ * @author Florian Wagner
+ *
+ */
+public final class LogTimeFormat
+{
+	/**
+	 * the formatter of the time stamps
+	 */
+	private final DateTimeFormatter formatter;
+
+	/**
+	 * the last formatted second
+	 */
+	private volatile Cached cached;
+
+	/**
+	 * Creates a new LogTimeFormat for the system time zone.
+	 * 
+	 * @param pattern the pattern of the time stamps, see
+	 *                {@link DateTimeFormatter#ofPattern(String)}
+	 */
+	public LogTimeFormat(String pattern)
+	{
+		this(pattern, ZoneId.systemDefault());
+	}
+
+	/**
+	 * Creates a new LogTimeFormat.
+	 * 
+	 * @param pattern the pattern of the time stamps, see
+	 *                {@link DateTimeFormatter#ofPattern(String)}
+	 * @param zone    the time zone of the time stamps
+	 */
+	public LogTimeFormat(String pattern, ZoneId zone)
+	{
+		ObjectUtils.isAnyNullThrow(pattern, zone);
+		this.formatter = DateTimeFormatter.ofPattern(pattern).withZone(zone);
+		this.cached = new Cached(Long.MIN_VALUE, "");
+	}
+
+	/**
+	 * Appends the given time stamp to the given {@link StringBuilder}.
+	 * 
+	 * @param millis the time stamp in milliseconds since the epoch
+	 * @param out    the builder to append to
+	 */
+	public void formatTo(long millis, StringBuilder out)
+	{
+		out.append(format(millis));
+	}
+
+	/**
+	 * Formats the given time stamp.
+	 * 
+	 * @param millis the time stamp in milliseconds since the epoch
+	 * @return the formatted time stamp
+	 */
+	public String format(long millis)
+	{
+		long second = Math.floorDiv(millis, 1000L);
+		Cached current = this.cached;
+		if (current.second != second)
+		{
+			current = new Cached(second, formatter.format(Instant.ofEpochSecond(second)));
+			this.cached = current;
+		}
+		return current.text;
+	}
+
+	/**
+	 * A formatted second.
+	 */
+	private static final class Cached
+	{
+		final long second;
+		final String text;
+
+		Cached(long second, String text)
+		{
+			this.second = second;
+			this.text = text;
+		}
+	}
+}
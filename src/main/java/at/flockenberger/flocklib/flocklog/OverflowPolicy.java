@@ -0,0 +1,31 @@
+package at.flockenberger.flocklib.flocklog;
+
+/**
+ * <h1>OverflowPolicy</h1><br>
+ * Decides what an {@link AsyncLogHandler} does with a new {@link LogEntry}
+ * while its queue is full.
+ * 
+ * @author Florian Wagner
+ *
+ */
+public enum OverflowPolicy
+{
+	/**
+	 * The logging thread waits until there is space in the queue. No entry is
+	 * lost, but a slow handler slows down the application.
+	 */
+	BLOCK,
+	/**
+	 * The oldest entry in the queue is dropped to make space for the new one. The
+	 * logging thread never waits.
+	 */
+	DROP_OLDEST,
+	/**
+	 * Entries that are more verbose than the drop level of the handler, that is
+	 * whose {@link LogLevel#getIntLevel()} is higher, are dropped. Entries of the
+	 * drop level and less verbose ones wait for space like with {@link #BLOCK}.
+	 * 
+	 * @see AsyncLogHandler#setDropLevel(LogLevel)
+	 */
+	DROP_BELOW_LEVEL
+}
@@ -367,6 +367,7 @@ public class FlockPluginManager
 
 		if (plugin.onUnload())
 		{
+			this.flockBus.removeStickyEvents(PluginLoadSuccessEvent.class, event -> event.getPlugin() == plugin);
 			this.flockBus.postEvent(new PluginUnloadSuccessEvent(plugin));
 			return TRUE;
 		} else
@@ -1,14 +1,19 @@
 package at.flockenberger.flocklib.flockplug.event;
 
+import at.flockenberger.flocklib.flockbus.Sticky;
 import at.flockenberger.flocklib.flockplug.IFlockPlugin;
 
 /**
  * <h1>PluginLoadSuccessEvent</h1> <br>
- * The event that is being send when a plugin was successfully loaded
+ * The event that is being send when a plugin was successfully loaded<br>
+ * The event is {@link Sticky}, objects that register to the bus later still
+ * receive the events of all currently loaded plugins. The event of a plugin is
+ * removed once the plugin has been unloaded.
  * 
  * @author Florian Wagner
  *
  */
+@Sticky(capacity = 64)
 public class PluginLoadSuccessEvent extends PluginBaseEvent
 {
 
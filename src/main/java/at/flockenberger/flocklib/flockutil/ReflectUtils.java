@@ -2,7 +2,9 @@ package at.flockenberger.flocklib.flockutil;
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import at.flockenberger.flocklib.flocklog.FlockLogManager;
 
@@ -48,6 +50,32 @@ public final class ReflectUtils
 		return classList;
 	}
 
+	/**
+	 * Retrieves the given {@link Class} <code>type</code>, all of its super
+	 * classes and all interfaces that are implemented by any of them.<br>
+	 * The returned {@link Set} starts with <code>type</code> followed by its super
+	 * classes in ascending order, the interfaces are appended afterwards.
+	 * 
+	 * @param type the type to get the hierarchy from
+	 * @return a {@link Set} with every type <code>type</code> is assignable to
+	 */
+	public static Set<Class<?>> getTypeHierarchy(Class<?> type)
+	{
+		ObjectUtils.isNullThrow(type);
+
+		Set<Class<?>> types = new LinkedHashSet<Class<?>>();
+		for (Class<?> cls = type; cls != null; cls = cls.getSuperclass())
+			types.add(cls);
+
+		List<Class<?>> pending = new ArrayList<Class<?>>(types);
+		for (int i = 0; i < pending.size(); i++)
+			for (Class<?> iface : pending.get(i).getInterfaces())
+				if (types.add(iface))
+					pending.add(iface);
+
+		return types;
+	}
+
 	/**
 	 * Prints the current stack trace into the console.<br>
 	 */
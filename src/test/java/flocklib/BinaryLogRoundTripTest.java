@@ -0,0 +1,254 @@
+package flocklib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import at.flockenberger.flocklib.flocklog.FlockLogManager;
+import at.flockenberger.flocklib.flocklog.FlockLogger;
+import at.flockenberger.flocklib.flocklog.LogBinaryDecoder;
+import at.flockenberger.flocklib.flocklog.LogBinaryHandler;
+import at.flockenberger.flocklib.flocklog.LogContext;
+import at.flockenberger.flocklib.flocklog.LogEntry;
+import at.flockenberger.flocklib.flocklog.LogField;
+import at.flockenberger.flocklib.flocklog.LogHandler;
+import at.flockenberger.flocklib.flocklog.LogLevel;
+
+/**
+ * Writes entries with a {@link LogBinaryHandler} and checks that the
+ * {@link LogBinaryDecoder} reads back exactly the same entries.
+ */
+public class BinaryLogRoundTripTest
+{
+	/**
+	 * more distinct formats than the string table of the handler holds
+	 */
+	private static final int DISTINCT_FORMATS = (1 << 16) + 1000;
+
+	public static class Point
+	{
+		final int x, y;
+
+		Point(int x, int y)
+		{
+			this.x = x;
+			this.y = y;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "(" + x + ", " + y + ")";
+		}
+	}
+
+	public void testAllArgumentTypes() throws IOException
+	{
+		long time = System.currentTimeMillis();
+		List<LogEntry> entries = new ArrayList<LogEntry>();
+		entries.add(new LogEntry("types", time,
+				"int={} short={} byte={} long={} boolean={} char={} float={} double={} string={} null={} object={}",
+				new Object[] { -42, (short) 7, (byte) -3, Long.MIN_VALUE, true, 'ß', 1.5f, Math.PI, "text", null,
+						new Point(1, 2) },
+				LogLevel.INFO));
+		entries.add(new LogEntry("types", time + 5, "extremes {} {} {} {}",
+				new Object[] { Integer.MIN_VALUE, Long.MAX_VALUE, Double.NaN, Float.NEGATIVE_INFINITY }, LogLevel.WARN));
+		entries.add(new LogEntry("types", time - 1000, "time stamp going backwards", LogLevel.ERROR));
+		entries.add(new LogEntry("types", time, "no placeholders but arguments", new Object[] { 1, 2 },
+				LogLevel.DEBUG));
+		entries.add(new LogEntry("types", time, "missing {} {}", new Object[] { "one" }, LogLevel.SYSTEM));
+		check(entries);
+	}
+
+	public void testNonAscii() throws IOException
+	{
+		long time = System.currentTimeMillis();
+		List<LogEntry> entries = new ArrayList<LogEntry>();
+		entries.add(new LogEntry("Grüße", time, "Größe {} → {}", new Object[] { "日本語", "🐑 flock" }, LogLevel.INFO));
+		entries.add(new LogEntry("Grüße", time, "plain ünïcödé message with an emoji 🐑", LogLevel.INFO));
+		entries.add(new LogEntry("Grüße", time, "", LogLevel.INFO));
+		check(entries);
+	}
+
+	public void testStringTableOverflow() throws IOException
+	{
+		long time = System.currentTimeMillis();
+		List<LogEntry> entries = new ArrayList<LogEntry>();
+		for (int i = 0; i < DISTINCT_FORMATS; i++)
+			entries.add(new LogEntry("logger-" + (i % 100), time + i, "format " + i + " with {}", new Object[] { i },
+					LogLevel.INFO));
+		// formats defined before the table was full are still referenced
+		for (int i = 0; i < 100; i++)
+			entries.add(new LogEntry("logger-" + i, time, "format " + i + " with {}", new Object[] { -i },
+					LogLevel.INFO));
+		check(entries);
+	}
+
+	public void testSourceLocation() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LogBinaryHandler handler = new LogBinaryHandler(out);
+		handler.setCaptureLocation(true);
+		FlockLogger logger = FlockLogManager.getLogger("binary-source");
+		for (LogHandler existing : logger.getHandlers())
+			logger.removeHandler(existing);
+		logger.addHandler(handler);
+
+		logger.info("first {}", 1);
+		logger.warn("second");
+		handler.close();
+
+		try (LogBinaryDecoder decoder = new LogBinaryDecoder(new ByteArrayInputStream(out.toByteArray())))
+		{
+			for (String message : new String[] { "first 1", "second" })
+			{
+				LogEntry entry = decoder.next();
+				assertEquals(message, entry.getMessage(), "message");
+				assertEquals(true, entry.hasSource(), "source");
+				assertEquals(getClass().getName(), entry.getSourceClassName(), "source class");
+				assertEquals("testSourceLocation", entry.getSourceMethodName(), "source method");
+			}
+			assertEquals(null, decoder.next(), "end of log");
+		}
+	}
+
+	public void testFieldsAndContext() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LogBinaryHandler handler = new LogBinaryHandler(out);
+		FlockLogger logger = FlockLogManager.getLogger("binary-fields");
+		for (LogHandler existing : logger.getHandlers())
+			logger.removeHandler(existing);
+		logger.addHandler(handler);
+
+		LogContext.put("requestId", "42");
+		LogContext.put("user", "Jürgen");
+		try
+		{
+			logger.infoWith("request done", LogField.of("status", 200), LogField.of("bytes", 1L << 40),
+					LogField.of("ratio", 0.25), LogField.of("cached", false), LogField.of("path", "/über"),
+					LogField.of("missing", null), LogField.of("point", new Point(3, 4)));
+			LogContext.clear();
+			logger.info("without context {}", 1);
+		} finally
+		{
+			LogContext.clear();
+		}
+		handler.close();
+
+		try (LogBinaryDecoder decoder = new LogBinaryDecoder(new ByteArrayInputStream(out.toByteArray())))
+		{
+			LogEntry entry = decoder.next();
+			assertEquals("request done", entry.getMessage(), "message");
+			assertEquals("{requestId=42, user=Jürgen}", entry.getContext().toString(), "context");
+			assertEquals("[status=200, bytes=1099511627776, ratio=0.25, cached=false, path=/über, missing=null, point=(3, 4)]",
+					entry.getFields().toString(), "fields");
+			assertEquals(Long.class, entry.getFields().get(1).getValue().getClass(), "field type");
+
+			entry = decoder.next();
+			assertEquals("without context 1", entry.getMessage(), "message");
+			assertEquals(true, entry.getContext().isEmpty(), "empty context");
+			assertEquals(true, entry.getFields().isEmpty(), "no fields");
+			assertEquals(null, decoder.next(), "end of log");
+		}
+	}
+
+	public void testFailedWrite() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStream failOnce = new OutputStream()
+		{
+			private int writes;
+
+			@Override
+			public void write(int b) throws IOException
+			{
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException
+			{
+				if (++writes == 2)
+					throw new IOException("disk full");
+				out.write(b, off, len);
+			}
+		};
+		LogBinaryHandler handler = new LogBinaryHandler(failOnce);
+		int count = 2000;
+		for (int i = 0; i < count; i++)
+			handler.log(new LogEntry("failing", i, "entry {}", new Object[] { i }, LogLevel.INFO));
+		handler.close();
+		assertEquals(1L, handler.getErrorCount(), "errors");
+
+		// only the entry that was being written is lost, the log stays readable
+		int decoded = 0;
+		int expected = 0;
+		boolean skipped = false;
+		try (LogBinaryDecoder decoder = new LogBinaryDecoder(new ByteArrayInputStream(out.toByteArray())))
+		{
+			LogEntry entry;
+			while ((entry = decoder.next()) != null)
+			{
+				if (entry.getTimeStamp() != expected && !skipped)
+				{
+					skipped = true;
+					expected++;
+				}
+				assertEquals("entry " + expected, entry.getMessage(), "message");
+				assertEquals((long) expected, entry.getTimeStamp(), "time stamp");
+				decoded++;
+				expected++;
+			}
+		}
+		assertEquals(count - 1, decoded, "decoded entries");
+	}
+
+	/**
+	 * Writes the entries and checks that they are decoded unchanged.
+	 */
+	private static void check(List<LogEntry> entries) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LogBinaryHandler handler = new LogBinaryHandler(out);
+		for (LogEntry entry : entries)
+			handler.log(entry);
+		handler.close();
+
+		try (LogBinaryDecoder decoder = new LogBinaryDecoder(new ByteArrayInputStream(out.toByteArray())))
+		{
+			for (LogEntry expected : entries)
+			{
+				LogEntry actual = decoder.next();
+				if (actual == null)
+					throw new AssertionError("Log ended before " + expected.getMessage());
+				assertEquals(expected.getLoggerName(), actual.getLoggerName(), "logger");
+				assertEquals(expected.getTimeStamp(), actual.getTimeStamp(), "time stamp");
+				assertEquals(expected.getLevel(), actual.getLevel(), "level");
+				assertEquals(expected.getMessage(), actual.getMessage(), "message");
+			}
+			assertEquals(null, decoder.next(), "end of log");
+		}
+	}
+
+	private static void assertEquals(Object expected, Object actual, String what)
+	{
+		if (expected == null ? actual != null : !expected.equals(actual))
+			throw new AssertionError(what + ": expected <" + expected + "> but was <" + actual + ">");
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		BinaryLogRoundTripTest test = new BinaryLogRoundTripTest();
+		test.testAllArgumentTypes();
+		test.testNonAscii();
+		test.testStringTableOverflow();
+		test.testSourceLocation();
+		test.testFieldsAndContext();
+		test.testFailedWrite();
+		System.out.println("Binary log round trip passed.");
+	}
+}
@@ -0,0 +1,195 @@
+package flocklib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import at.flockenberger.flocklib.flocklog.FlockLogManager;
+import at.flockenberger.flocklib.flocklog.FlockLogger;
+import at.flockenberger.flocklib.flocklog.LogContext;
+import at.flockenberger.flocklib.flocklog.LogEntry;
+import at.flockenberger.flocklib.flocklog.LogHandler;
+import at.flockenberger.flocklib.flocklog.LogRateLimiter;
+
+/**
+ * Checks that the {@link LogRateLimiter} lets a burst of every message pass,
+ * drops and summarizes the rest and keeps limiting when messages share a set of
+ * slots.
+ */
+public class LogRateLimiterTest
+{
+	/**
+	 * collects the messages of all logged entries
+	 */
+	public static class CollectingHandler extends LogHandler
+	{
+		final List<String> messages = new CopyOnWriteArrayList<String>();
+		final List<LogEntry> entries = new CopyOnWriteArrayList<LogEntry>();
+
+		@Override
+		public void log(LogEntry entry)
+		{
+			messages.add(entry.getMessage());
+			entries.add(entry);
+		}
+
+		@Override
+		public void close()
+		{}
+
+		@Override
+		public void flush()
+		{}
+	}
+
+	public void testBurstAndSummary() throws InterruptedException
+	{
+		CollectingHandler handler = new CollectingHandler();
+		FlockLogger logger = logger("rate-burst", handler);
+		LogRateLimiter limiter = new LogRateLimiter(3, 200, TimeUnit.MILLISECONDS);
+		logger.setRateLimiter(limiter);
+
+		for (int i = 0; i < 100; i++)
+			logger.info("Connection to {} lost", i);
+		assertEquals(3, handler.messages.size(), "entries of the burst");
+		assertEquals(97L, limiter.getSuppressedCount(), "suppressed entries");
+
+		// nothing is logged anymore, the background flush logs the summary
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+		while (handler.messages.size() < 4 && System.nanoTime() < deadline)
+			Thread.sleep(10);
+		assertEquals(4, handler.messages.size(), "entries with the summary");
+		String summary = handler.messages.get(3);
+		if (!summary.startsWith("\"Connection to {} lost\" repeated 97 times in "))
+			throw new AssertionError("Unexpected summary: " + summary);
+
+		logger.info("Connection to {} lost", 100);
+		assertEquals("Connection to 100 lost", handler.messages.get(handler.messages.size() - 1), "refilled");
+		logger.setRateLimiter(null);
+	}
+
+	public void testSharedSetKeepsLimiting()
+	{
+		CollectingHandler handler = new CollectingHandler();
+		FlockLogger logger = logger("rate-ways", handler);
+		// a single set, every message competes for the same slots
+		LogRateLimiter limiter = new LogRateLimiter(1, 1, TimeUnit.HOURS, LogRateLimiter.WAYS);
+		logger.setRateLimiter(limiter);
+
+		for (int round = 0; round < 2; round++)
+			for (int i = 0; i < LogRateLimiter.WAYS; i++)
+				logger.info("message " + i);
+		assertEquals(LogRateLimiter.WAYS, handler.messages.size(), "one entry of every message");
+
+		// the slots are busy, a further message is not limited ...
+		logger.info("one message too many");
+		logger.info("one message too many");
+		assertEquals(2L, limiter.getUntrackedCount(), "untracked entries");
+
+		// ... and does not take the slot of a message that is being limited
+		for (int i = 0; i < LogRateLimiter.WAYS; i++)
+			logger.info("message " + i);
+		assertEquals(LogRateLimiter.WAYS + 2, handler.messages.size(), "entries");
+		assertEquals(2L * LogRateLimiter.WAYS, limiter.getSuppressedCount(), "suppressed entries");
+		logger.setRateLimiter(null);
+	}
+
+	public void testConcurrentSummaries() throws InterruptedException
+	{
+		CollectingHandler handler = new CollectingHandler();
+		FlockLogger logger = logger("rate-summaries", handler);
+		LogRateLimiter limiter = new LogRateLimiter(1, 1, TimeUnit.HOURS, LogRateLimiter.WAYS);
+		logger.setRateLimiter(limiter);
+
+		int threads = 4;
+		int perThread = 50_000;
+		AtomicBoolean logging = new AtomicBoolean(true);
+		Thread flusher = new Thread(() -> {
+			while (logging.get())
+				limiter.flush();
+		});
+		List<Thread> loggers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++)
+			loggers.add(new Thread(() -> {
+				for (int i = 0; i < perThread; i++)
+					logger.warn("storm");
+			}));
+		flusher.start();
+		loggers.forEach(Thread::start);
+		for (Thread thread : loggers)
+			thread.join();
+		logging.set(false);
+		flusher.join();
+		limiter.flush();
+		logger.setRateLimiter(null);
+
+		// every dropped entry shows up in exactly one summary
+		long summarized = 0;
+		for (String message : handler.messages)
+		{
+			if (!message.startsWith("\"storm\" repeated "))
+				continue;
+			String count = message.substring(message.indexOf(" repeated ") + 10, message.indexOf(" time"));
+			summarized += Long.parseLong(count.replace(",", ""));
+		}
+		assertEquals((long) threads * perThread - 1, summarized, "summarized entries");
+	}
+
+	public void testSummaryHasNoContext()
+	{
+		CollectingHandler handler = new CollectingHandler();
+		handler.setCaptureLocation(true);
+		FlockLogger logger = logger("rate-context", handler);
+		LogRateLimiter limiter = new LogRateLimiter(1, 1, TimeUnit.HOURS);
+		logger.setRateLimiter(limiter);
+
+		LogContext.put("requestId", "1");
+		try
+		{
+			logger.error("disk full");
+			logger.error("disk full");
+			// the summary is logged by whichever thread flushes, here another
+			// request
+			LogContext.put("requestId", "2");
+			limiter.flush();
+		} finally
+		{
+			LogContext.clear();
+			logger.setRateLimiter(null);
+		}
+
+		assertEquals(2, handler.entries.size(), "entries with the summary");
+		assertEquals("{requestId=1}", handler.entries.get(0).getContext().toString(), "context of the entry");
+		LogEntry summary = handler.entries.get(1);
+		assertEquals(true, summary.getMessage().startsWith("\"disk full\" repeated 1 time in "), "summary");
+		assertEquals(true, summary.getContext().isEmpty(), "context of the summary");
+		assertEquals(false, summary.hasSource(), "source of the summary");
+	}
+
+	private static FlockLogger logger(String name, LogHandler handler)
+	{
+		FlockLogger logger = FlockLogManager.getLogger(name);
+		for (LogHandler existing : logger.getHandlers())
+			logger.removeHandler(existing);
+		logger.addHandler(handler);
+		return logger;
+	}
+
+	private static void assertEquals(Object expected, Object actual, String what)
+	{
+		if (!expected.equals(actual))
+			throw new AssertionError(what + ": expected <" + expected + "> but was <" + actual + ">");
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		LogRateLimiterTest test = new LogRateLimiterTest();
+		test.testBurstAndSummary();
+		test.testSharedSetKeepsLimiting();
+		test.testConcurrentSummaries();
+		test.testSummaryHasNoContext();
+		System.out.println("Rate limiter passed.");
+	}
+}
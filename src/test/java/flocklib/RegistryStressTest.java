@@ -0,0 +1,110 @@
+package flocklib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import at.flockenberger.flocklib.flockbus.FlockBus;
+import at.flockenberger.flocklib.flockbus.Subscribe;
+
+/**
+ * Registers, unregisters and posts from many threads at once and checks that
+ * no registered subscriber is ever lost.
+ */
+public class RegistryStressTest
+{
+	private static final int REGISTER_THREADS = 8;
+	private static final int POST_THREADS = 4;
+	private static final int LISTENERS_PER_THREAD = 2000;
+
+	public static class Listener
+	{
+		final AtomicInteger received = new AtomicInteger();
+
+		@Subscribe
+		public void onEvent(TestEvent1 event)
+		{
+			received.incrementAndGet();
+		}
+	}
+
+	public void testNoSubscriberIsLost() throws InterruptedException
+	{
+		FlockBus bus = new FlockBus("Stress Bus");
+		List<List<Listener>> kept = new ArrayList<List<Listener>>();
+		AtomicBoolean posting = new AtomicBoolean(true);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> registerThreads = new ArrayList<Thread>();
+		List<Thread> postThreads = new ArrayList<Thread>();
+
+		for (int t = 0; t < REGISTER_THREADS; t++)
+		{
+			List<Listener> listeners = new ArrayList<Listener>();
+			kept.add(listeners);
+			registerThreads.add(new Thread(() -> {
+				await(start);
+				for (int i = 0; i < LISTENERS_PER_THREAD; i++)
+				{
+					Listener keep = new Listener();
+					Listener drop = new Listener();
+					bus.register(keep);
+					bus.register(drop);
+					bus.unregister(drop);
+					listeners.add(keep);
+				}
+			}));
+		}
+
+		for (int t = 0; t < POST_THREADS; t++)
+		{
+			postThreads.add(new Thread(() -> {
+				await(start);
+				while (posting.get())
+					bus.postEvent(new TestEvent3());
+			}));
+		}
+
+		registerThreads.forEach(Thread::start);
+		postThreads.forEach(Thread::start);
+		start.countDown();
+		for (Thread thread : registerThreads)
+			thread.join();
+		posting.set(false);
+		for (Thread thread : postThreads)
+			thread.join();
+
+		int[] before = new int[REGISTER_THREADS * LISTENERS_PER_THREAD];
+		int i = 0;
+		for (List<Listener> listeners : kept)
+			for (Listener listener : listeners)
+				before[i++] = listener.received.get();
+
+		bus.postEvent(new TestEvent1());
+
+		i = 0;
+		for (List<Listener> listeners : kept)
+			for (Listener listener : listeners)
+				if (listener.received.get() != before[i++] + 1)
+					throw new AssertionError("Subscriber was lost or invoked twice: " + listener.received.get()
+							+ " instead of " + (before[i - 1] + 1));
+	}
+
+	private static void await(CountDownLatch latch)
+	{
+		try
+		{
+			latch.await();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		new RegistryStressTest().testNoSubscriberIsLost();
+		System.out.println("No subscriber lost.");
+	}
+}
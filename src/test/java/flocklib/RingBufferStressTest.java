@@ -0,0 +1,230 @@
+package flocklib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.flockenberger.flocklib.flockbus.EventBase;
+import at.flockenberger.flocklib.flockbus.ProducerType;
+import at.flockenberger.flocklib.flockbus.RingBufferFlockBus;
+import at.flockenberger.flocklib.flockbus.Subscribe;
+import at.flockenberger.flocklib.flockbus.SubscriberExceptionHandler;
+import at.flockenberger.flocklib.flockbus.WaitStrategy;
+
+/**
+ * Posts to a {@link RingBufferFlockBus} from one and from many threads and
+ * checks that no accepted event is lost, that the events of every producer
+ * arrive in order, also while the bus shuts down, and that a failing
+ * subscriber does not stop the consumer.
+ */
+public class RingBufferStressTest
+{
+	private static final int BUFFER_SIZE = 64;
+	private static final int PRODUCERS = 4;
+	private static final int EVENTS_PER_PRODUCER = 200_000;
+	private static final int SHUTDOWN_ROUNDS = 200;
+
+	public static class SequenceEvent extends EventBase
+	{
+		final int producer;
+		final int sequence;
+
+		SequenceEvent(int producer, int sequence)
+		{
+			this.producer = producer;
+			this.sequence = sequence;
+		}
+	}
+
+	/**
+	 * checks the order of the events of every producer, only called by the
+	 * consumer thread
+	 */
+	public static class OrderListener
+	{
+		final int[] last;
+		long received;
+		String error;
+
+		OrderListener(int producers)
+		{
+			this.last = new int[producers];
+			Arrays.fill(last, -1);
+		}
+
+		@Subscribe
+		public void onEvent(SequenceEvent event)
+		{
+			if (error == null && event.sequence != last[event.producer] + 1)
+				error = "Producer " + event.producer + " sent " + event.sequence + " after "
+						+ last[event.producer];
+			last[event.producer] = event.sequence;
+			received++;
+		}
+	}
+
+	public static class FailingListener
+	{
+		@Subscribe
+		public void onEvent(SequenceEvent event)
+		{
+			if (event.sequence % 1000 == 1)
+				throw new AssertionError("error of event " + event.sequence);
+			if (event.sequence % 2 == 0)
+				throw new IllegalStateException("exception of event " + event.sequence);
+		}
+	}
+
+	public void testProducersKeepOrder() throws InterruptedException
+	{
+		checkOrder(ProducerType.SINGLE, 1);
+		checkOrder(ProducerType.MULTI, PRODUCERS);
+	}
+
+	public void testPostsRacingShutdown() throws InterruptedException
+	{
+		for (int round = 0; round < SHUTDOWN_ROUNDS; round++)
+		{
+			raceShutdown(ProducerType.SINGLE, 1, round);
+			raceShutdown(ProducerType.MULTI, PRODUCERS, round);
+		}
+	}
+
+	public void testFailingSubscriber() throws InterruptedException
+	{
+		RingBufferFlockBus bus = new RingBufferFlockBus("Failing Ring", BUFFER_SIZE, ProducerType.SINGLE,
+				WaitStrategy.YIELD);
+		bus.setExceptionHandler(SubscriberExceptionHandler.IGNORE);
+		OrderListener listener = new OrderListener(1);
+		bus.register(new FailingListener());
+		bus.register(listener);
+
+		int count = 10 * BUFFER_SIZE;
+		for (int i = 0; i < count; i++)
+			bus.postEvent(new SequenceEvent(0, i));
+		if (!bus.shutdown(10, TimeUnit.SECONDS))
+			throw new AssertionError("Consumer did not stop");
+
+		// the order of the subscribers is not defined, events whose error was
+		// thrown first are not delivered to the other subscriber
+		long errors = (count + 998) / 1000;
+		if (listener.received < count - errors)
+			throw new AssertionError("Received " + listener.received + " of " + count + " events");
+		if (bus.getFailureCount() != count / 2)
+			throw new AssertionError("Failures: " + bus.getFailureCount());
+	}
+
+	public void testSingleProducerRejectsCoalescing() throws InterruptedException
+	{
+		RingBufferFlockBus bus = new RingBufferFlockBus("Single Ring", BUFFER_SIZE, ProducerType.SINGLE,
+				WaitStrategy.PARK);
+		try
+		{
+			bus.coalesce(SequenceEvent.class, event -> event.producer);
+			throw new AssertionError("A single producer ring accepted coalescing");
+		} catch (IllegalStateException e)
+		{
+			// expected, the flush would be a second producer
+		} finally
+		{
+			bus.shutdown();
+		}
+	}
+
+	private static void checkOrder(ProducerType type, int producers) throws InterruptedException
+	{
+		RingBufferFlockBus bus = new RingBufferFlockBus("Order Ring " + type, BUFFER_SIZE, type, WaitStrategy.YIELD);
+		OrderListener listener = new OrderListener(producers);
+		bus.register(listener);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; p++)
+		{
+			int producer = p;
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < EVENTS_PER_PRODUCER; i++)
+					bus.postEvent(new SequenceEvent(producer, i));
+			}));
+		}
+		threads.forEach(Thread::start);
+		for (Thread thread : threads)
+			thread.join();
+		bus.shutdown();
+
+		if (listener.error != null)
+			throw new AssertionError(type + ": " + listener.error);
+		if (listener.received != (long) producers * EVENTS_PER_PRODUCER)
+			throw new AssertionError(type + ": received " + listener.received + " of "
+					+ (long) producers * EVENTS_PER_PRODUCER + " events");
+	}
+
+	private static void raceShutdown(ProducerType type, int producers, int round) throws InterruptedException
+	{
+		RingBufferFlockBus bus = new RingBufferFlockBus("Shutdown Ring " + type, BUFFER_SIZE, type,
+				WaitStrategy.YIELD);
+		OrderListener listener = new OrderListener(producers);
+		bus.register(listener);
+		AtomicLong accepted = new AtomicLong();
+		CountDownLatch start = new CountDownLatch(1);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; p++)
+		{
+			int producer = p;
+			threads.add(new Thread(() -> {
+				await(start);
+				for (int i = 0;; i++)
+				{
+					try
+					{
+						bus.postEvent(new SequenceEvent(producer, i));
+					} catch (IllegalStateException e)
+					{
+						return;
+					}
+					accepted.incrementAndGet();
+				}
+			}));
+		}
+		threads.forEach(Thread::start);
+		start.countDown();
+		// vary the point at which the bus shuts down
+		long spin = System.nanoTime() + (round % 20) * 10_000L;
+		while (System.nanoTime() - spin < 0)
+			Thread.onSpinWait();
+		if (!bus.shutdown(10, TimeUnit.SECONDS))
+			throw new AssertionError(type + ": consumer did not stop");
+		for (Thread thread : threads)
+			thread.join();
+
+		if (listener.error != null)
+			throw new AssertionError(type + ": " + listener.error);
+		if (listener.received != accepted.get())
+			throw new AssertionError(type + ": delivered " + listener.received + " of " + accepted.get()
+					+ " accepted events in round " + round);
+	}
+
+	private static void await(CountDownLatch latch)
+	{
+		try
+		{
+			latch.await();
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		RingBufferStressTest test = new RingBufferStressTest();
+		test.testProducersKeepOrder();
+		test.testPostsRacingShutdown();
+		test.testFailingSubscriber();
+		test.testSingleProducerRejectsCoalescing();
+		System.out.println("Ring buffer passed.");
+	}
+}